@@ -0,0 +1,45 @@
+package ru.aston.intensive.benchmark;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.JdbcSettings;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.entity.UserTombstone;
+import ru.aston.intensive.exception.AppException;
+
+public final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    public static SessionFactory buildSessionFactory() {
+        try {
+            StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .configure("hibernate.cfg.xml")
+                .applySetting(JdbcSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:benchmark;MODE=PostgreSQL;DB_CLOSE_DELAY=-1")
+                .applySetting(JdbcSettings.JAKARTA_JDBC_DRIVER, "org.h2.Driver")
+                .applySetting(JdbcSettings.JAKARTA_JDBC_USER, "sa")
+                .applySetting(JdbcSettings.JAKARTA_JDBC_PASSWORD, "")
+                .applySetting("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+                .applySetting("hibernate.hbm2ddl.auto", "create-drop")
+                .applySetting("hibernate.hikari.maximumPoolSize", "8")
+                .applySetting("hibernate.show_sql", "false")
+                .applySetting("hibernate.format_sql", "false")
+                .build();
+
+            Metadata metadata = new MetadataSources(registry)
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(UserTombstone.class)
+                .getMetadataBuilder()
+                .build();
+
+            return metadata.getSessionFactoryBuilder().build();
+        } catch (Exception ex) {
+            throw new AppException("Benchmark SessionFactory creation failed.", ex);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package ru.aston.intensive.exception;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class NotFoundCostBenchmark {
+
+    private long userId = 42;
+
+    @Benchmark
+    public Object formattedExceptionWithStackTrace() {
+        try {
+            throw new UserNotFoundException(String.format("User with id=%s not found", userId));
+        } catch (UserNotFoundException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object lazyExceptionWithoutStackTrace() {
+        try {
+            throw UserNotFoundException.byId(userId);
+        } catch (UserNotFoundException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object emptyOptional() {
+        return Optional.empty().orElse(null);
+    }
+
+}
@@ -0,0 +1,127 @@
+package ru.aston.intensive.service;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import ru.aston.intensive.benchmark.BenchmarkDatabase;
+import ru.aston.intensive.dao.UserDAOHibernateImpl;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.UserNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public abstract class UserServiceBenchmark {
+
+    private static final int PRELOADED_USERS = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        final AtomicLong emailSequence = new AtomicLong();
+        SessionFactory sessionFactory;
+        UserService userService;
+        List<Long> userIds;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            sessionFactory = BenchmarkDatabase.buildSessionFactory();
+            userService = new UserService(new UserDAOHibernateImpl(sessionFactory));
+
+            List<User> users = new ArrayList<>(PRELOADED_USERS);
+            for (int i = 0; i < PRELOADED_USERS; i++) {
+                User user = new User();
+                user.setName("User" + i);
+                user.setEmail("preloaded" + i + "@bench.ru");
+                users.add(user);
+            }
+            userIds = userService.saveAll(users).savedIds();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            sessionFactory.close();
+        }
+
+        Long randomUserId() {
+            return userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+        }
+
+        Long missingUserId() {
+            return -randomUserId();
+        }
+
+        String nextEmail() {
+            return "user" + emailSequence.incrementAndGet() + "@bench.ru";
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class DeletionCandidate {
+
+        Long userId;
+
+        @Setup(Level.Invocation)
+        public void saveCandidate(Database database) {
+            userId = database.userService.saveUser("Candidate", database.nextEmail());
+        }
+
+    }
+
+    @Benchmark
+    public Long saveUser(Database database) {
+        return database.userService.saveUser("Ivan", database.nextEmail());
+    }
+
+    @Benchmark
+    public User getUserById(Database database) {
+        return database.userService.getUserById(database.randomUserId());
+    }
+
+    @Benchmark
+    public User getMissingUserById(Database database) {
+        try {
+            return database.userService.getUserById(database.missingUserId());
+        } catch (UserNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Optional<User> findMissingUserById(Database database) {
+        return database.userService.findUserById(database.missingUserId());
+    }
+
+    @Benchmark
+    public void updateUser(Database database) {
+        Long userId = database.randomUserId();
+        database.userService.updateUser(userId, "Updated", "preloaded-updated" + userId + "@bench.ru");
+    }
+
+    @Benchmark
+    public void deleteUserById(Database database, DeletionCandidate candidate) {
+        database.userService.deleteUserById(candidate.userId);
+    }
+
+    @Benchmark
+    public void validateData() {
+        UserService.validateData("Ivan", "ivan@test.ru");
+    }
+
+    @Threads(1)
+    public static class SingleThread extends UserServiceBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends UserServiceBenchmark {
+    }
+
+}
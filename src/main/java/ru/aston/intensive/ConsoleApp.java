@@ -2,20 +2,112 @@ package ru.aston.intensive;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.aston.intensive.batch.BatchRunner;
+import ru.aston.intensive.batch.BatchSummary;
+import ru.aston.intensive.dao.InMemoryUserDAO;
+import ru.aston.intensive.dao.InstrumentedUserDAO;
+import ru.aston.intensive.dao.RoutingUserDAO;
+import ru.aston.intensive.dao.ShardedUserDAO;
+import ru.aston.intensive.dao.UserDAO;
 import ru.aston.intensive.dao.UserDAOHibernateImpl;
 import ru.aston.intensive.entity.User;
 import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.io.ExportSummary;
+import ru.aston.intensive.io.ImportSummary;
+import ru.aston.intensive.io.UserExporter;
+import ru.aston.intensive.io.UserFileFormat;
+import ru.aston.intensive.io.UserImporter;
 import ru.aston.intensive.service.UserService;
 import ru.aston.intensive.utils.HibernateUtil;
+import ru.aston.intensive.utils.OffHeapUserStore;
+import ru.aston.intensive.utils.PoolMetrics;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 import java.util.Scanner;
 
 public class ConsoleApp {
 
     private static final Logger log = LoggerFactory.getLogger(ConsoleApp.class);
-    static UserService userService = new UserService(new UserDAOHibernateImpl(HibernateUtil.getSessionFactory()));
+    private static final Duration REPLICA_STICKINESS = Duration.ofSeconds(5);
+    private static final String IN_MEMORY_USERS_ENV = "IN_MEMORY_USERS";
+    private static final String IN_MEMORY_SEARCH_ENV = "IN_MEMORY_SEARCH";
+    private static final int SEARCH_LIMIT = 20;
+
+    static RoutingUserDAO routingDao;
+    static InMemoryUserDAO inMemoryDao;
+    static InstrumentedUserDAO instrumentedDao;
+    static UserService userService;
     static Scanner scanner = new Scanner(System.in);
 
+    private static final String BATCH_OPTION = "--batch";
+    private static final String IMPORT_OPTION = "--import";
+    private static final String EXPORT_OPTION = "--export";
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    // The in-memory copy loads the whole table, so only the interactive menu builds it
+    private static void createService(boolean interactive) {
+        if (HibernateUtil.isReplicaConfigured()) {
+            routingDao = new RoutingUserDAO(new UserDAOHibernateImpl(HibernateUtil::getSessionFactory),
+                new UserDAOHibernateImpl(HibernateUtil::getReplicaSessionFactory), REPLICA_STICKINESS);
+        }
+        UserDAO dao = createDao();
+        if (interactive && System.getenv(IN_MEMORY_USERS_ENV) != null) {
+            inMemoryDao = new InMemoryUserDAO(dao, getInMemoryUsers(), OffHeapUserStore.DEFAULT_SEGMENT_SIZE,
+                Boolean.parseBoolean(System.getenv(IN_MEMORY_SEARCH_ENV)));
+            dao = inMemoryDao;
+        }
+        instrumentedDao = new InstrumentedUserDAO(dao);
+        userService = new UserService(instrumentedDao);
+    }
+
+    private static UserDAO createDao() {
+        if (HibernateUtil.isShardingConfigured()) {
+            return ShardedUserDAO.forSessionFactories(HibernateUtil.getShardSessionFactories());
+        }
+        return routingDao != null ? routingDao : new UserDAOHibernateImpl(HibernateUtil::getSessionFactory);
+    }
+
+    private static int getInMemoryUsers() {
+        String value = System.getenv(IN_MEMORY_USERS_ENV);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new AppException(String.format("Invalid %s: %s", IN_MEMORY_USERS_ENV, value));
+        }
+    }
+
     public static void main(String[] args) {
+        HibernateUtil.startBootstrap();
+        boolean interactive = args.length == 0 || !List.of(BATCH_OPTION, IMPORT_OPTION, EXPORT_OPTION).contains(args[0]);
+        try {
+            createService(interactive);
+        } catch (AppException exc) {
+            log.error(exc.getMessage());
+            System.exit(2);
+        }
+        if (args.length > 0 && BATCH_OPTION.equals(args[0])) {
+            System.exit(runBatch(args).failed() > 0 ? 1 : 0);
+        }
+        if (args.length > 0 && IMPORT_OPTION.equals(args[0])) {
+            runImport(args);
+            System.exit(0);
+        }
+        if (args.length > 0 && EXPORT_OPTION.equals(args[0])) {
+            if (args.length < 2) {
+                System.err.println("Usage: --export <file.csv|file.jsonl>[.gz]");
+                System.exit(2);
+            }
+            exportUsers(Path.of(args[1]));
+            System.exit(0);
+        }
         while (true) {
             try {
                 runner();
@@ -35,8 +127,9 @@ public class ConsoleApp {
                 System.out.println(System.lineSeparator());
                 break;
             case 2:
-                User user = getUser();
-                System.out.println("Найден пользователь: " + user);
+                getUser().ifPresentOrElse(
+                    user -> System.out.println("Найден пользователь: " + user),
+                    () -> System.out.println("Пользователь не найден"));
                 System.out.println(System.lineSeparator());
                 break;
             case 3:
@@ -48,6 +141,18 @@ public class ConsoleApp {
                 System.out.println(System.lineSeparator());
                 break;
             case 5:
+                showStatistics();
+                System.out.println(System.lineSeparator());
+                break;
+            case 6:
+                exportUsers(getExportPath());
+                System.out.println(System.lineSeparator());
+                break;
+            case 7:
+                searchUsers();
+                System.out.println(System.lineSeparator());
+                break;
+            case 8:
                 System.exit(0);
             default:
                 log.warn("Unknown menu id: {}", choice);
@@ -61,7 +166,10 @@ public class ConsoleApp {
             "2. Получить данные о пользователе\n" +
             "3. Обновить данные пользователя\n" +
             "4. Удалить пользователя\n" +
-            "5. Выйти\n";
+            "5. Показать статистику\n" +
+            "6. Экспортировать пользователей\n" +
+            "7. Найти пользователей\n" +
+            "8. Выйти\n";
     }
 
     public static void createUser() {
@@ -76,13 +184,24 @@ public class ConsoleApp {
         userService.saveUser(name, email);
     }
 
-    public static User getUser() {
+    public static Optional<User> getUser() {
         log.info("Getting existing user");
 
         System.out.print("Введите id пользователя: ");
 
         Long userId = getUserId(scanner.nextLine());
-        return userService.getUserById(userId);
+        return userService.findUserById(userId);
+    }
+
+    public static void searchUsers() {
+        log.info("Searching users");
+
+        System.out.print("Введите часть имени или почты: ");
+        List<User> users = userService.searchUsers(scanner.nextLine(), SEARCH_LIMIT);
+        if (users.isEmpty()) {
+            System.out.println("Пользователи не найдены");
+        }
+        users.forEach(System.out::println);
     }
 
     public static void updateUser() {
@@ -90,6 +209,8 @@ public class ConsoleApp {
 
         System.out.print("Введите id пользователя: ");
         Long userId = getUserId(scanner.nextLine());
+        User currentUser = userService.getUserById(userId);
+        System.out.println("Текущие данные: " + currentUser);
 
         System.out.print("Введите новое имя: ");
         String name = scanner.nextLine();
@@ -97,7 +218,8 @@ public class ConsoleApp {
         System.out.print("Введите новую почту: ");
         String email = scanner.nextLine();
 
-        userService.updateUser(userId, name, email);
+        // Fails instead of overwriting if someone else changed the user while we were typing
+        userService.updateUser(userId, currentUser.getVersion(), name, email);
     }
 
     public static void deleteUser() {
@@ -106,7 +228,79 @@ public class ConsoleApp {
         System.out.print("Введите id пользователя: ");
         Long userId = getUserId(scanner.nextLine());
 
-        userService.deleteUserById(userId);
+        if (userService.deleteUserIfExists(userId) == 0) {
+            System.out.println("Пользователь не найден");
+        }
+    }
+
+    public static void showStatistics() {
+        log.info("Showing statistics snapshot");
+
+        instrumentedDao.snapshot().forEach(System.out::println);
+        if (routingDao != null) {
+            System.out.println(routingDao);
+        }
+        if (inMemoryDao != null) {
+            System.out.println(inMemoryDao);
+        }
+        System.out.println(PoolMetrics.of(HibernateUtil.getSessionFactory()));
+        System.out.println(HibernateUtil.getStartupTimings());
+        System.out.println(HibernateUtil.formatStatistics(HibernateUtil.getStatistics()));
+        System.out.println(HibernateUtil.formatCacheStatistics(HibernateUtil.getStatistics()));
+        System.out.println(userService.formatConflictStatistics());
+    }
+
+    public static void exportUsers(Path output) {
+        log.info("Exporting users to {}", output);
+
+        UserExporter exporter = HibernateUtil.isShardingConfigured()
+            ? UserExporter.forShards(HibernateUtil.getShardSessionFactories(), UserExporter.DEFAULT_FETCH_SIZE)
+            : new UserExporter(HibernateUtil::getSessionFactory);
+        ExportSummary summary = exporter.export(output, UserFileFormat.of(output), UserFileFormat.isCompressed(output));
+        System.out.println(summary);
+    }
+
+    private static Path getExportPath() {
+        System.out.print("Введите путь к файлу (.csv, .jsonl, можно с .gz): ");
+        return Path.of(scanner.nextLine());
+    }
+
+    private static BatchSummary runBatch(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --batch <file|-> [parallelism] [chunkSize]");
+            System.exit(2);
+        }
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PARALLELISM;
+        int chunkSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CHUNK_SIZE;
+        log.info("Running batch from {} with parallelism={}, chunkSize={}", args[1], parallelism, chunkSize);
+
+        try (BufferedReader reader = "-".equals(args[1])
+            ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+            : Files.newBufferedReader(Path.of(args[1]), StandardCharsets.UTF_8)) {
+            BatchSummary summary = new BatchRunner(userService, chunkSize, parallelism, System.err).run(reader);
+            System.out.println(summary);
+            return summary;
+        } catch (IOException e) {
+            throw new AppException(String.format("Cannot read batch input: %s", args[1]), e);
+        }
+    }
+
+    private static void runImport(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --import <file.csv|file.jsonl> [parseThreads] [chunkSize]");
+            System.exit(2);
+        }
+        Path input = Path.of(args[1]);
+        int parseThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int chunkSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CHUNK_SIZE;
+        log.info("Importing users from {} with parseThreads={}, chunkSize={}", input, parseThreads, chunkSize);
+
+        ImportSummary summary = new UserImporter(userService, chunkSize, parseThreads)
+            .importFile(input, UserFileFormat.of(input));
+        System.out.println(summary);
+        if (summary.rejected() > 0) {
+            System.out.println("Rejected rows: " + UserImporter.rejectsFile(input));
+        }
     }
 
     private static Long getUserId(String id) {
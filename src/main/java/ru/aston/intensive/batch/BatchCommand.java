@@ -0,0 +1,48 @@
+package ru.aston.intensive.batch;
+
+import ru.aston.intensive.exception.AppException;
+
+public record BatchCommand(long lineNumber, Type type, Long userId, String name, String email) {
+
+    public static final String SEPARATOR = ";";
+
+    public enum Type {
+        CREATE, GET, UPDATE, DELETE
+    }
+
+    public static BatchCommand parse(long lineNumber, String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        String command = fields[0].trim().toLowerCase();
+        switch (command) {
+            case "create":
+                requireFields(lineNumber, fields, 3);
+                return new BatchCommand(lineNumber, Type.CREATE, null, fields[1].trim(), fields[2].trim());
+            case "get":
+                requireFields(lineNumber, fields, 2);
+                return new BatchCommand(lineNumber, Type.GET, parseId(lineNumber, fields[1]), null, null);
+            case "update":
+                requireFields(lineNumber, fields, 4);
+                return new BatchCommand(lineNumber, Type.UPDATE, parseId(lineNumber, fields[1]), fields[2].trim(), fields[3].trim());
+            case "delete":
+                requireFields(lineNumber, fields, 2);
+                return new BatchCommand(lineNumber, Type.DELETE, parseId(lineNumber, fields[1]), null, null);
+            default:
+                throw new AppException(String.format("Unknown command '%s' at line %s", command, lineNumber));
+        }
+    }
+
+    private static void requireFields(long lineNumber, String[] fields, int expected) {
+        if (fields.length != expected) {
+            throw new AppException(String.format("Expected %s fields at line %s, got %s", expected, lineNumber, fields.length));
+        }
+    }
+
+    private static Long parseId(long lineNumber, String id) {
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            throw new AppException(String.format("Invalid id format: %s at line %s", id, lineNumber));
+        }
+    }
+
+}
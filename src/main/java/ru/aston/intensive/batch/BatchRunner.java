@@ -0,0 +1,208 @@
+package ru.aston.intensive.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.batch.BatchCommand.Type;
+import ru.aston.intensive.dao.BatchSaveResult;
+import ru.aston.intensive.dao.BatchUpdateResult;
+import ru.aston.intensive.dao.UserLookupResult;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.service.UserService;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class BatchRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchRunner.class);
+
+    private final UserService userService;
+    private final int chunkSize;
+    private final int parallelism;
+    private final PrintStream failureOutput;
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public BatchRunner(UserService userService, int chunkSize, int parallelism, PrintStream failureOutput) {
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new AppException(String.format("Invalid chunk size=%s, parallelism=%s", chunkSize, parallelism));
+        }
+        this.userService = userService;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.failureOutput = failureOutput;
+    }
+
+    public BatchSummary run(BufferedReader reader) {
+        succeeded.reset();
+        failed.reset();
+        long start = System.nanoTime();
+        long commands = 0;
+        Semaphore chunksInFlight = new Semaphore(parallelism * 2);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(parallelism)) {
+            List<BatchCommand> chunk = new ArrayList<>(chunkSize);
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                commands++;
+                try {
+                    chunk.add(BatchCommand.parse(lineNumber, line));
+                } catch (AppException e) {
+                    fail(lineNumber, e.getMessage());
+                    continue;
+                }
+                if (chunk.size() == chunkSize) {
+                    submit(executor, chunksInFlight, chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(executor, chunksInFlight, chunk);
+            }
+        } catch (IOException e) {
+            throw new AppException("Batch input read failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Batch interrupted", e);
+        }
+
+        BatchSummary summary = new BatchSummary(commands, succeeded.sum(), failed.sum(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("{}", summary);
+        return summary;
+    }
+
+    private void submit(ExecutorService executor, Semaphore chunksInFlight, List<BatchCommand> chunk) throws InterruptedException {
+        chunksInFlight.acquire();
+        executor.execute(() -> {
+            try {
+                execute(chunk);
+            } finally {
+                chunksInFlight.release();
+            }
+        });
+    }
+
+    private void execute(List<BatchCommand> chunk) {
+        int start = 0;
+        while (start < chunk.size()) {
+            Type type = chunk.get(start).type();
+            int end = start;
+            while (end < chunk.size() && chunk.get(end).type() == type) {
+                end++;
+            }
+            List<BatchCommand> segment = chunk.subList(start, end);
+            Set<BatchCommand> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+            try {
+                int failedInSegment = executeSegment(type, segment, rejected);
+                succeeded.add(segment.size() - failedInSegment);
+            } catch (RuntimeException e) {
+                segment.stream()
+                    .filter(command -> !rejected.contains(command))
+                    .forEach(command -> fail(command.lineNumber(), e.getMessage()));
+            }
+            start = end;
+        }
+    }
+
+    private int executeSegment(Type type, List<BatchCommand> segment, Set<BatchCommand> rejected) {
+        switch (type) {
+            case CREATE:
+                return create(segment, rejected);
+            case GET:
+                UserLookupResult lookup = userService.getUsersByIds(segment.stream().map(BatchCommand::userId).toList());
+                return failMissing(segment, command -> lookup.missing().contains(command.userId()));
+            case UPDATE:
+                return update(segment, rejected);
+            case DELETE:
+                BatchUpdateResult deletion = userService.deleteAll(segment.stream().map(BatchCommand::userId).toList());
+                Set<Long> deleted = new HashSet<>();
+                return failMissing(segment, command -> deletion.missing().contains(command.userId())
+                    || !deleted.add(command.userId()));
+            default:
+                throw new AppException(String.format("Unsupported command type: %s", type));
+        }
+    }
+
+    private int create(List<BatchCommand> segment, Set<BatchCommand> rejected) {
+        Map<User, BatchCommand> commandsByUser = new IdentityHashMap<>();
+        int invalid = collectValid(segment, commandsByUser, rejected, command -> {
+            User user = new User();
+            user.setName(command.name());
+            user.setEmail(command.email());
+            return user;
+        });
+        if (commandsByUser.isEmpty()) {
+            return invalid;
+        }
+
+        BatchSaveResult result = userService.saveAll(new ArrayList<>(commandsByUser.keySet()));
+        result.failures().forEach(failure -> failure.users()
+            .forEach(user -> fail(commandsByUser.get(user).lineNumber(), failure.reason())));
+        return invalid + result.failedCount();
+    }
+
+    private int update(List<BatchCommand> segment, Set<BatchCommand> rejected) {
+        Map<User, BatchCommand> commandsByUser = new IdentityHashMap<>();
+        int invalid = collectValid(segment, commandsByUser, rejected, command -> {
+            User user = new User();
+            user.setId(command.userId());
+            user.setName(command.name());
+            user.setEmail(command.email());
+            return user;
+        });
+        if (commandsByUser.isEmpty()) {
+            return invalid;
+        }
+
+        BatchUpdateResult result = userService.updateAll(new ArrayList<>(commandsByUser.keySet()));
+        return invalid + failMissing(List.copyOf(commandsByUser.values()), command -> result.missing().contains(command.userId()));
+    }
+
+    private int collectValid(List<BatchCommand> segment, Map<User, BatchCommand> commandsByUser,
+                             Set<BatchCommand> rejected, Function<BatchCommand, User> toUser) {
+        for (BatchCommand command : segment) {
+            try {
+                UserService.validateData(command.name(), command.email());
+                commandsByUser.put(toUser.apply(command), command);
+            } catch (AppException e) {
+                fail(command.lineNumber(), e.getMessage());
+                rejected.add(command);
+            }
+        }
+        return rejected.size();
+    }
+
+    private int failMissing(List<BatchCommand> commands, Predicate<BatchCommand> isMissing) {
+        int missing = 0;
+        for (BatchCommand command : commands) {
+            if (isMissing.test(command)) {
+                fail(command.lineNumber(), String.format("User with id=%s not found", command.userId()));
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    private void fail(long lineNumber, String reason) {
+        failed.increment();
+        synchronized (failureOutput) {
+            failureOutput.println(String.format("line %d: %s", lineNumber, reason));
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package ru.aston.intensive.batch;
+
+public record BatchSummary(long commands, long succeeded, long failed, long elapsedMillis) {
+
+    public double throughputPerSecond() {
+        return elapsedMillis == 0 ? commands : commands * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Batch finished: commands=%d, succeeded=%d, failed=%d, elapsed=%dms, throughput=%.1f/s",
+            commands, succeeded, failed, elapsedMillis, throughputPerSecond());
+    }
+
+}
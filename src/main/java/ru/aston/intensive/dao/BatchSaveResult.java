@@ -0,0 +1,21 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import java.util.List;
+
+public record BatchSaveResult(List<Long> savedIds, List<BatchFailure> failures) {
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    public int failedCount() {
+        return failures.stream()
+            .mapToInt(failure -> failure.users().size())
+            .sum();
+    }
+
+    public record BatchFailure(int batchIndex, List<User> users, String reason) {
+    }
+
+}
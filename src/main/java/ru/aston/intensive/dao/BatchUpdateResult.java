@@ -0,0 +1,15 @@
+package ru.aston.intensive.dao;
+
+import java.util.Set;
+
+public record BatchUpdateResult(int updated, Set<Long> missing, Set<Long> conflicts) {
+
+    public BatchUpdateResult(int updated, Set<Long> missing) {
+        this(updated, missing, Set.of());
+    }
+
+    public boolean isComplete() {
+        return missing.isEmpty() && conflicts.isEmpty();
+    }
+
+}
@@ -0,0 +1,15 @@
+package ru.aston.intensive.dao;
+
+import java.util.List;
+
+public record BatchUpsertResult(List<Long> insertedIds, List<Long> updatedIds) {
+
+    public int inserted() {
+        return insertedIds.size();
+    }
+
+    public int updated() {
+        return updatedIds.size();
+    }
+
+}
@@ -0,0 +1,144 @@
+package ru.aston.intensive.dao;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.entity.User;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class CachingUserDAO extends ForwardingUserDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUserDAO.class);
+
+    private final Cache<Long, User> cache;
+
+    public CachingUserDAO(UserDAO delegate, long maximumSize, Duration timeToLive) {
+        super(delegate);
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        // Inserted users cannot be cached yet, a failed upsert changed nothing
+        BatchUpsertResult result = delegate.upsertAll(users);
+        invalidate(result.updatedIds());
+        return result;
+    }
+
+    @Override
+    public User findById(Long id) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findById(id);
+        }
+        return cache.get(id, delegate::findById);
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findOptionalById(id);
+        }
+        // A null mapping result is not cached, so misses keep going to the delegate
+        return Optional.ofNullable(cache.get(id, key -> delegate.findOptionalById(key).orElse(null)));
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findByIds(ids);
+        }
+        Map<Long, User> found = cache.getAll(ids, missingIds -> delegate.findByIds(Set.copyOf(missingIds)).found());
+        Set<Long> missing = new LinkedHashSet<>(ids);
+        missing.removeAll(found.keySet());
+        return new UserLookupResult(found, missing);
+    }
+
+    @Override
+    public void update(User user) {
+        List<Long> ids = List.of(user.getId());
+        try {
+            delegate.update(user);
+        } finally {
+            invalidate(ids);
+        }
+    }
+
+    // The ids are taken first, ShardedUserDAO gives a user moved to another shard a new one
+    @Override
+    public int updateIfPresent(User user) {
+        List<Long> ids = List.of(user.getId());
+        try {
+            return delegate.updateIfPresent(user);
+        } finally {
+            invalidate(ids);
+        }
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        List<Long> ids = users.stream().map(User::getId).toList();
+        try {
+            return delegate.updateAll(users);
+        } finally {
+            invalidate(ids);
+        }
+    }
+
+    @Override
+    public void delete(Long id) {
+        try {
+            delegate.delete(id);
+        } finally {
+            invalidate(List.of(id));
+        }
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        try {
+            return delegate.deleteIfPresent(id);
+        } finally {
+            invalidate(List.of(id));
+        }
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        try {
+            return delegate.deleteAll(ids);
+        } finally {
+            invalidate(ids);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        log.debug("DAO cache: Invalidated all entries");
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    // Other threads may cache the old users again until the unit commits
+    private void invalidate(Collection<Long> ids) {
+        cache.invalidateAll(ids);
+        UnitOfWork unit = UnitOfWork.current();
+        if (unit != null) {
+            unit.afterCompletion(committed -> cache.invalidateAll(ids));
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package ru.aston.intensive.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.UserNotFoundException;
+import ru.aston.intensive.utils.BloomFilter;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+public class EmailFilterUserDAO extends ForwardingUserDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailFilterUserDAO.class);
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final long expectedUsers;
+    private final double falsePositiveRate;
+    private final LongAdder filteredLookups = new LongAdder();
+    private final LongAdder databaseLookups = new LongAdder();
+    // Writes hold the read lock until they are done, so a rebuild never starts its scan before them
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+    private volatile BloomFilter filter;
+    private volatile BloomFilter rebuildingFilter;
+
+    private EmailFilterUserDAO(UserDAO delegate, long expectedUsers, double falsePositiveRate) {
+        super(delegate);
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public static EmailFilterUserDAO create(UserDAO delegate, long expectedUsers, double falsePositiveRate) {
+        EmailFilterUserDAO filterDao = new EmailFilterUserDAO(delegate, expectedUsers, falsePositiveRate);
+        filterDao.rebuild();
+        return filterDao;
+    }
+
+    public synchronized void rebuild() {
+        BloomFilter freshFilter = new BloomFilter(expectedUsers, falsePositiveRate);
+        LongAdder loaded = new LongAdder();
+        withRebuildLock(() -> rebuildingFilter = freshFilter);
+        try {
+            delegate.forEachBatch(null, LOAD_BATCH_SIZE, batch -> {
+                batch.forEach(user -> freshFilter.put(user.getEmail()));
+                loaded.add(batch.size());
+                return true;
+            });
+            withRebuildLock(() -> filter = freshFilter);
+            log.debug("DAO email filter: Loaded {} emails into the filter", loaded.sum());
+        } finally {
+            withRebuildLock(() -> rebuildingFilter = null);
+        }
+    }
+
+    @Override
+    public Long save(User user) {
+        return write(List.of(user), () -> delegate.save(user));
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        return write(users, () -> delegate.saveAll(users));
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        return write(users, () -> delegate.upsertAll(users));
+    }
+
+    @Override
+    public void update(User user) {
+        write(List.of(user), () -> {
+            delegate.update(user);
+            return null;
+        });
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        return write(List.of(user), () -> delegate.updateIfPresent(user));
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        return write(users, () -> delegate.updateAll(users));
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        if (isDefinitelyFree(email)) {
+            throw UserNotFoundException.byEmail(email);
+        }
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return !isDefinitelyFree(email) && delegate.existsByEmail(email);
+    }
+
+    public long getFilteredLookups() {
+        return filteredLookups.sum();
+    }
+
+    public long getDatabaseLookups() {
+        return databaseLookups.sum();
+    }
+
+    private boolean isDefinitelyFree(String email) {
+        BloomFilter current = filter;
+        if (current != null && email != null && !current.mightContain(email)) {
+            filteredLookups.increment();
+            return true;
+        }
+        databaseLookups.increment();
+        return false;
+    }
+
+    private <T> T write(Collection<User> users, Supplier<T> operation) {
+        rebuildLock.readLock().lock();
+        try {
+            users.forEach(user -> remember(user.getEmail()));
+            return operation.get();
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    private void withRebuildLock(Runnable action) {
+        rebuildLock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    private void remember(String email) {
+        if (email == null) {
+            return;
+        }
+        BloomFilter rebuilding = rebuildingFilter;
+        if (rebuilding != null) {
+            rebuilding.put(email);
+        }
+        BloomFilter current = filter;
+        if (current != null) {
+            current.put(email);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+public abstract class ForwardingUserDAO implements UserDAO {
+
+    protected final UserDAO delegate;
+
+    protected ForwardingUserDAO(UserDAO delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Long save(User user) {
+        return delegate.save(user);
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        return delegate.saveAll(users);
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        return delegate.upsertAll(users);
+    }
+
+    @Override
+    public User findById(Long id) {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        return delegate.findOptionalById(id);
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        return delegate.findByIds(ids);
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return delegate.existsByEmail(email);
+    }
+
+    @Override
+    public void update(User user) {
+        delegate.update(user);
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        return delegate.updateIfPresent(user);
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        return delegate.updateAll(users);
+    }
+
+    @Override
+    public void delete(Long id) {
+        delegate.delete(id);
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        return delegate.deleteIfPresent(id);
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        return delegate.deleteAll(ids);
+    }
+
+    @Override
+    public Long forEachBatch(Long afterId, int batchSize, Predicate<List<User>> batchConsumer) {
+        return delegate.forEachBatch(afterId, batchSize, batchConsumer);
+    }
+
+    @Override
+    public Stream<User> stream(Long afterId, int fetchSize) {
+        return delegate.stream(afterId, fetchSize);
+    }
+
+    @Override
+    public List<UserChange> findChangedSince(LocalDateTime since, Long lastId, int limit) {
+        return delegate.findChangedSince(since, lastId, limit);
+    }
+
+    @Override
+    public List<User> search(String query, int limit) {
+        return delegate.search(query, limit);
+    }
+
+}
@@ -0,0 +1,457 @@
+package ru.aston.intensive.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import ru.aston.intensive.utils.OffHeapUserStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+public class InMemoryUserDAO extends ForwardingUserDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryUserDAO.class);
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final int LOCK_STRIPES = 64;
+
+    private final int segmentSize;
+    private final boolean searchEnabled;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private final ReentrantReadWriteLock reloadLock = new ReentrantReadWriteLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private volatile OffHeapUserStore store;
+    private volatile UserPrefixIndex searchIndex;
+
+    public InMemoryUserDAO(UserDAO delegate, int expectedUsers) {
+        this(delegate, expectedUsers, OffHeapUserStore.DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    public InMemoryUserDAO(UserDAO delegate, int expectedUsers, int segmentSize, boolean searchEnabled) {
+        super(delegate);
+        this.segmentSize = segmentSize;
+        this.searchEnabled = searchEnabled;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        load(expectedUsers);
+    }
+
+    @Override
+    public User findById(Long id) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findById(id);
+        }
+        User user = store.get(id);
+        if (user == null) {
+            throw UserNotFoundException.byId(id);
+        }
+        hits.increment();
+        return user;
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findOptionalById(id);
+        }
+        User user = store.get(id);
+        if (user != null) {
+            hits.increment();
+        }
+        return Optional.ofNullable(user);
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findByIds(ids);
+        }
+        OffHeapUserStore current = store;
+        Map<Long, User> found = new HashMap<>();
+        Set<Long> missing = new LinkedHashSet<>();
+        for (Long id : ids) {
+            User user = current.get(id);
+            if (user == null) {
+                missing.add(id);
+            } else {
+                found.put(id, user);
+            }
+        }
+        hits.add(found.size());
+        return new UserLookupResult(found, missing);
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.findByEmail(email);
+        }
+        User user = store.getByEmail(email);
+        if (user == null) {
+            throw UserNotFoundException.byEmail(email);
+        }
+        hits.increment();
+        return user;
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        if (UnitOfWork.isWriting()) {
+            return delegate.existsByEmail(email);
+        }
+        hits.increment();
+        return store.containsEmail(email);
+    }
+
+    @Override
+    public List<User> search(String query, int limit) {
+        if (!searchEnabled || UnitOfWork.isWriting()) {
+            return delegate.search(query, limit);
+        }
+        String normalized = UserSearch.normalize(query);
+        UserSearch.checkLimit(limit);
+        OffHeapUserStore current = store;
+        List<User> users = new ArrayList<>();
+        // Every candidate is ranked before the limit, so the top users match the database search
+        for (Long id : searchIndex.search(normalized)) {
+            User user = current.get(id);
+            // The index may briefly run ahead of or behind the store during a write
+            if (user != null && UserSearch.rank(user, normalized) < UserSearch.SUBSTRING) {
+                users.add(user);
+            }
+        }
+        users.sort(UserSearch.order(normalized));
+        hits.increment();
+        return users.size() > limit ? new ArrayList<>(users.subList(0, limit)) : users;
+    }
+
+    @Override
+    public Long save(User user) {
+        if (UnitOfWork.current() != null) {
+            Long id = delegate.save(user);
+            refreshAfterUnit(List.of(id));
+            return id;
+        }
+        return withLocks(List.of(), () -> {
+            Long id = delegate.save(user);
+            put(user);
+            return id;
+        });
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        if (UnitOfWork.current() != null) {
+            BatchSaveResult result = delegate.saveAll(users);
+            refreshAfterUnit(result.savedIds());
+            return result;
+        }
+        return withLocks(List.of(), () -> {
+            BatchSaveResult result = delegate.saveAll(users);
+            Set<Long> savedIds = new HashSet<>(result.savedIds());
+            for (User user : users) {
+                if (user.getId() != null && savedIds.contains(user.getId())) {
+                    put(user);
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        if (UnitOfWork.current() != null) {
+            BatchUpsertResult result = delegate.upsertAll(users);
+            refreshAfterUnit(users.stream().map(User::getId).toList());
+            return result;
+        }
+        List<Long> existingIds = new ArrayList<>();
+        OffHeapUserStore current = store;
+        for (User user : users) {
+            User stored = current.getByEmail(user.getEmail());
+            if (stored != null) {
+                existingIds.add(stored.getId());
+            }
+        }
+        return withLocks(existingIds, () -> {
+            BatchUpsertResult result;
+            try {
+                result = delegate.upsertAll(users);
+            } catch (RuntimeException e) {
+                refresh(existingIds);
+                throw e;
+            }
+            // The last occurrence of a repeated email is put last, as in the database
+            users.forEach(this::put);
+            return result;
+        });
+    }
+
+    @Override
+    public void update(User user) {
+        applyUpdate(user, () -> {
+            delegate.update(user);
+            return 1;
+        });
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        return applyUpdate(user, () -> delegate.updateIfPresent(user));
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        List<Long> ids = users.stream().map(User::getId).toList();
+        if (UnitOfWork.current() != null) {
+            BatchUpdateResult result = delegate.updateAll(users);
+            refreshAfterUnit(withMovedIds(ids, users));
+            return result;
+        }
+        return withLocks(ids, () -> {
+            Map<Long, User> stored = new HashMap<>();
+            ids.forEach(id -> stored.put(id, store.get(id)));
+            BatchUpdateResult result;
+            try {
+                result = delegate.updateAll(users);
+            } catch (RuntimeException e) {
+                refresh(ids);
+                throw e;
+            }
+            Set<Long> unchanged = new HashSet<>(result.missing());
+            unchanged.addAll(result.conflicts());
+            Iterator<Long> previousIds = ids.iterator();
+            for (User user : users) {
+                Long id = previousIds.next();
+                if (!unchanged.contains(id)) {
+                    applyUpdate(id, stored.get(id), user);
+                }
+            }
+            if (!unchanged.isEmpty()) {
+                refresh(unchanged);
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void delete(Long id) {
+        if (UnitOfWork.current() != null) {
+            delegate.delete(id);
+            refreshAfterUnit(List.of(id));
+            return;
+        }
+        withLocks(List.of(id), () -> {
+            try {
+                delegate.delete(id);
+            } finally {
+                remove(id);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        if (UnitOfWork.current() != null) {
+            int affected = delegate.deleteIfPresent(id);
+            refreshAfterUnit(List.of(id));
+            return affected;
+        }
+        return withLocks(List.of(id), () -> {
+            try {
+                return delegate.deleteIfPresent(id);
+            } finally {
+                remove(id);
+            }
+        });
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        if (UnitOfWork.current() != null) {
+            BatchUpdateResult result = delegate.deleteAll(ids);
+            refreshAfterUnit(ids);
+            return result;
+        }
+        return withLocks(ids, () -> {
+            try {
+                return delegate.deleteAll(ids);
+            } finally {
+                ids.forEach(this::remove);
+            }
+        });
+    }
+
+    public void reload() {
+        withLocks(null, () -> {
+            load(store.size());
+            return null;
+        });
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, hits=%d, refreshes=%d", store, getHits(), getRefreshes());
+    }
+
+    private void load(int expectedUsers) {
+        long start = System.nanoTime();
+        OffHeapUserStore loaded = new OffHeapUserStore(expectedUsers, segmentSize);
+        UserPrefixIndex loadedIndex = searchEnabled ? new UserPrefixIndex() : null;
+        delegate.forEachBatch(null, LOAD_BATCH_SIZE, batch -> {
+            batch.forEach(loaded::put);
+            if (loadedIndex != null) {
+                batch.forEach(loadedIndex::add);
+            }
+            return true;
+        });
+        searchIndex = loadedIndex;
+        store = loaded;
+        log.info("DAO in-memory: Loaded {} users in {} ms", loaded.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void put(User user) {
+        User previous = searchEnabled ? store.get(user.getId()) : null;
+        store.put(user);
+        if (searchEnabled) {
+            if (previous != null) {
+                searchIndex.remove(previous);
+            }
+            searchIndex.add(user);
+        }
+    }
+
+    private void remove(Long id) {
+        User previous = searchEnabled ? store.get(id) : null;
+        store.remove(id);
+        if (previous != null) {
+            searchIndex.remove(previous);
+        }
+    }
+
+    private static Set<Long> withMovedIds(Collection<Long> ids, Collection<User> users) {
+        Set<Long> affected = new LinkedHashSet<>(ids);
+        users.forEach(user -> affected.add(user.getId()));
+        return affected;
+    }
+
+    private int applyUpdate(User user, IntSupplier update) {
+        Long id = user.getId();
+        if (UnitOfWork.current() != null) {
+            int affected = update.getAsInt();
+            refreshAfterUnit(withMovedIds(List.of(id), List.of(user)));
+            return affected;
+        }
+        return withLocks(List.of(id), () -> {
+            User stored = store.get(id);
+            int affected;
+            try {
+                affected = update.getAsInt();
+            } catch (RuntimeException e) {
+                // Conflicts and misses mean the store was stale, other failures leave the row unknown
+                refresh(List.of(id));
+                throw e;
+            }
+            if (affected == 0) {
+                refresh(List.of(id));
+            } else {
+                applyUpdate(id, stored, user);
+            }
+            return affected;
+        });
+    }
+
+    // ShardedUserDAO gives a user whose email moves it to another shard a new id
+    private void applyUpdate(Long id, User stored, User user) {
+        if (!id.equals(user.getId())) {
+            remove(id);
+        }
+        if (stored == null) {
+            refresh(List.of(user.getId()));
+            return;
+        }
+        Long version = user.getVersion() != null ? user.getVersion()
+            : stored.getVersion() == null ? null : stored.getVersion() + 1;
+        put(new User(user.getId(), user.getName(), user.getEmail(), stored.getCreatedAt(), version, user.getUpdatedAt()));
+    }
+
+    // A write inside a unit of work may still be rolled back, so the users are re-read once the unit has ended
+    private void refreshAfterUnit(Collection<Long> ids) {
+        List<Long> affected = List.copyOf(ids);
+        UnitOfWork.current().afterCompletion(committed -> withLocks(affected, () -> {
+            refresh(affected);
+            return null;
+        }));
+    }
+
+    private void refresh(Collection<Long> ids) {
+        refreshes.add(ids.size());
+        try {
+            UserLookupResult result = delegate.findByIds(ids);
+            result.found().values().forEach(this::put);
+            result.missing().forEach(this::remove);
+        } catch (AppException e) {
+            log.warn("DAO in-memory: Cannot refresh users with ids={}, removing them: {}", ids, e.getMessage());
+            ids.forEach(this::remove);
+        }
+    }
+
+    // Ascending order, so writes never deadlock; new users need no stripe, nobody else knows their ids yet
+    private <T> T withLocks(Collection<Long> ids, Supplier<T> operation) {
+        if (ids == null) {
+            return withLock(reloadLock.writeLock(), operation);
+        }
+        Set<Integer> locked = new TreeSet<>();
+        ids.forEach(id -> locked.add(id == null ? 0 : Math.floorMod(Long.hashCode(id), stripes.length)));
+        return withLock(reloadLock.readLock(), () -> {
+            locked.forEach(stripe -> stripes[stripe].lock());
+            try {
+                return operation.get();
+            } finally {
+                locked.forEach(stripe -> stripes[stripe].unlock());
+            }
+        });
+    }
+
+    private static <T> T withLock(Lock lock, Supplier<T> operation) {
+        lock.lock();
+        try {
+            return operation.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
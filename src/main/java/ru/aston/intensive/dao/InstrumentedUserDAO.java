@@ -0,0 +1,159 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.metrics.OperationMetrics;
+import ru.aston.intensive.metrics.OperationSnapshot;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public class InstrumentedUserDAO extends ForwardingUserDAO {
+
+    public enum Operation {
+        SAVE, SAVE_ALL, FIND_BY_ID, FIND_BY_IDS, FIND_BY_EMAIL, EXISTS_BY_EMAIL, UPDATE, UPDATE_ALL, DELETE, DELETE_ALL, FOR_EACH_BATCH, STREAM,
+        FIND_CHANGED_SINCE, SEARCH, FIND_OPTIONAL_BY_ID, UPDATE_IF_PRESENT, DELETE_IF_PRESENT,
+        UPSERT_ALL
+    }
+
+    private final OperationMetrics[] metrics = Arrays.stream(Operation.values())
+        .map(operation -> new OperationMetrics(operation.name()))
+        .toArray(OperationMetrics[]::new);
+
+    public InstrumentedUserDAO(UserDAO delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public Long save(User user) {
+        return timed(Operation.SAVE, () -> delegate.save(user));
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        return timed(Operation.SAVE_ALL, () -> delegate.saveAll(users));
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        return timed(Operation.UPSERT_ALL, () -> delegate.upsertAll(users));
+    }
+
+    @Override
+    public User findById(Long id) {
+        return timed(Operation.FIND_BY_ID, () -> delegate.findById(id));
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        return timed(Operation.FIND_OPTIONAL_BY_ID, () -> delegate.findOptionalById(id));
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        return timed(Operation.FIND_BY_IDS, () -> delegate.findByIds(ids));
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        return timed(Operation.FIND_BY_EMAIL, () -> delegate.findByEmail(email));
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return timed(Operation.EXISTS_BY_EMAIL, () -> delegate.existsByEmail(email));
+    }
+
+    @Override
+    public void update(User user) {
+        timed(Operation.UPDATE, () -> {
+            delegate.update(user);
+            return null;
+        });
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        return timed(Operation.UPDATE_IF_PRESENT, () -> delegate.updateIfPresent(user));
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        return timed(Operation.UPDATE_ALL, () -> delegate.updateAll(users));
+    }
+
+    @Override
+    public void delete(Long id) {
+        timed(Operation.DELETE, () -> {
+            delegate.delete(id);
+            return null;
+        });
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        return timed(Operation.DELETE_IF_PRESENT, () -> delegate.deleteIfPresent(id));
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        return timed(Operation.DELETE_ALL, () -> delegate.deleteAll(ids));
+    }
+
+    @Override
+    public Long forEachBatch(Long afterId, int batchSize, Predicate<List<User>> batchConsumer) {
+        return timed(Operation.FOR_EACH_BATCH, () -> delegate.forEachBatch(afterId, batchSize, batchConsumer));
+    }
+
+    // Timed until the stream is closed, the rows are only read while it is consumed
+    @Override
+    public Stream<User> stream(Long afterId, int fetchSize) {
+        OperationMetrics operation = metrics[Operation.STREAM.ordinal()];
+        long start = operation.begin();
+        try {
+            return delegate.stream(afterId, fetchSize).onClose(() -> operation.success(start));
+        } catch (RuntimeException e) {
+            operation.failure(start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<UserChange> findChangedSince(LocalDateTime since, Long lastId, int limit) {
+        return timed(Operation.FIND_CHANGED_SINCE, () -> delegate.findChangedSince(since, lastId, limit));
+    }
+
+    @Override
+    public List<User> search(String query, int limit) {
+        return timed(Operation.SEARCH, () -> delegate.search(query, limit));
+    }
+
+    public OperationSnapshot snapshot(Operation operation) {
+        return metrics[operation.ordinal()].snapshot();
+    }
+
+    public List<OperationSnapshot> snapshot() {
+        return Arrays.stream(metrics)
+            .map(OperationMetrics::snapshot)
+            .filter(snapshot -> snapshot.calls() > 0 || snapshot.inFlight() > 0)
+            .toList();
+    }
+
+    private <T> T timed(Operation op, Supplier<T> call) {
+        OperationMetrics operation = metrics[op.ordinal()];
+        long start = operation.begin();
+        try {
+            T result = call.get();
+            operation.success(start);
+            return result;
+        } catch (RuntimeException e) {
+            operation.failure(start, e);
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package ru.aston.intensive.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public class RoutingUserDAO implements UserDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingUserDAO.class);
+
+    public enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private final UserDAO primary;
+    private final UserDAO replica;
+    private final long stickinessNanos;
+    // Not per thread: AsyncUserService runs a caller's writes and its later reads on different threads
+    private final AtomicLong lastWriteNanos;
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder stickyReads = new LongAdder();
+    private final LongAdder replicaFailures = new LongAdder();
+
+    public RoutingUserDAO(UserDAO primary, UserDAO replica, Duration stickiness) {
+        this.primary = primary;
+        this.replica = replica;
+        this.stickinessNanos = stickiness.toNanos();
+        this.lastWriteNanos = new AtomicLong(System.nanoTime() - stickinessNanos);
+    }
+
+    @Override
+    public Long save(User user) {
+        return write(() -> primary.save(user));
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        return write(() -> primary.saveAll(users));
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        return write(() -> primary.upsertAll(users));
+    }
+
+    @Override
+    public User findById(Long id) {
+        return read(dao -> dao.findById(id));
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        return read(dao -> dao.findOptionalById(id));
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        return read(dao -> dao.findByIds(ids));
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        return read(dao -> dao.findByEmail(email));
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return read(dao -> dao.existsByEmail(email));
+    }
+
+    @Override
+    public void update(User user) {
+        write(() -> {
+            primary.update(user);
+            return null;
+        });
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        return write(() -> primary.updateIfPresent(user));
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        return write(() -> primary.updateAll(users));
+    }
+
+    @Override
+    public void delete(Long id) {
+        write(() -> {
+            primary.delete(id);
+            return null;
+        });
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        return write(() -> primary.deleteIfPresent(id));
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        return write(() -> primary.deleteAll(ids));
+    }
+
+    @Override
+    public Long forEachBatch(Long afterId, int batchSize, Predicate<List<User>> batchConsumer) {
+        // Falling back after a batch was consumed would hand the same users to the consumer twice
+        AtomicBoolean consumed = new AtomicBoolean();
+        return read(dao -> dao.forEachBatch(afterId, batchSize, batch -> {
+            consumed.set(true);
+            return batchConsumer.test(batch);
+        }), consumed::get);
+    }
+
+    @Override
+    public Stream<User> stream(Long afterId, int fetchSize) {
+        return read(dao -> dao.stream(afterId, fetchSize));
+    }
+
+    @Override
+    public List<UserChange> findChangedSince(LocalDateTime since, Long lastId, int limit) {
+        return read(dao -> dao.findChangedSince(since, lastId, limit));
+    }
+
+    @Override
+    public List<User> search(String query, int limit) {
+        return read(dao -> dao.search(query, limit));
+    }
+
+    public Route currentReadRoute() {
+        if (UnitOfWork.isWriting()) {
+            return Route.PRIMARY;
+        }
+        return System.nanoTime() - lastWriteNanos.get() < stickinessNanos ? Route.PRIMARY : Route.REPLICA;
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    public long getStickyReads() {
+        return stickyReads.sum();
+    }
+
+    public long getReplicaFailures() {
+        return replicaFailures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Routing: writes=%d, primary reads=%d (sticky=%d), replica reads=%d, replica failures=%d",
+            getWrites(), getPrimaryReads(), getStickyReads(), getReplicaReads(), getReplicaFailures());
+    }
+
+    private <T> T write(Supplier<T> operation) {
+        writes.increment();
+        try {
+            return operation.get();
+        } finally {
+            // Even a failed write may have been committed before the error surfaced
+            lastWriteNanos.set(System.nanoTime());
+        }
+    }
+
+    private <T> T read(Function<UserDAO, T> operation) {
+        return read(operation, () -> false);
+    }
+
+    private <T> T read(Function<UserDAO, T> operation, BooleanSupplier partiallyConsumed) {
+        // A read-write unit of work has to see its own uncommitted changes, a read-only one may use the replica
+        if (UnitOfWork.isWriting()) {
+            primaryReads.increment();
+            return operation.apply(primary);
+        }
+        if (currentReadRoute() == Route.PRIMARY) {
+            stickyReads.increment();
+            primaryReads.increment();
+            return operation.apply(primary);
+        }
+        try {
+            T result = operation.apply(replica);
+            replicaReads.increment();
+            return result;
+        } catch (UserNotFoundException e) {
+            replicaReads.increment();
+            throw e;
+        } catch (AppException e) {
+            replicaFailures.increment();
+            if (partiallyConsumed.getAsBoolean()) {
+                throw e;
+            }
+            log.warn("DAO routing: Replica read failed, falling back to primary: {}", e.getMessage());
+            primaryReads.increment();
+            return operation.apply(primary);
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package ru.aston.intensive.dao;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.exception.AppException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+public class SessionCancellation {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionCancellation.class);
+    private static final ThreadLocal<SessionCancellation> CURRENT = new ThreadLocal<>();
+
+    private final List<SharedSessionContract> sessions = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    public <T> T run(Supplier<T> work) {
+        SessionCancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (SharedSessionContract session : sessions) {
+            if (session.isOpen()) {
+                try {
+                    ((SharedSessionContractImplementor) session).getJdbcCoordinator().cancelLastQuery();
+                    log.debug("DAO: Cancelled running query of session {}", session);
+                } catch (HibernateException e) {
+                    log.warn("DAO: Query cancellation failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    static <S extends SharedSessionContract> S track(S session) {
+        SessionCancellation current = CURRENT.get();
+        if (current != null) {
+            if (current.cancelled) {
+                session.close();
+                throw new AppException("Operation cancelled");
+            }
+            current.sessions.add(session);
+        }
+        return session;
+    }
+
+}
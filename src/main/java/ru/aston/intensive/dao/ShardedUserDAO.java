@@ -0,0 +1,426 @@
+package ru.aston.intensive.dao;
+
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.dao.BatchSaveResult.BatchFailure;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.OptimisticConflictException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class ShardedUserDAO implements UserDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedUserDAO.class);
+
+    private final List<UserDAO> shards;
+
+    public ShardedUserDAO(List<UserDAO> shards) {
+        if (shards.isEmpty()) {
+            throw new AppException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    public static ShardedUserDAO forSessionFactories(List<SessionFactory> sessionFactories) {
+        return new ShardedUserDAO(sessionFactories.stream()
+            .<UserDAO>map(UserDAOHibernateImpl::new)
+            .toList());
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public int shardOfId(Long id) {
+        return (int) Math.floorMod(id, (long) shards.size());
+    }
+
+    public int shardOfEmail(String email) {
+        return Math.floorMod(email.hashCode(), shards.size());
+    }
+
+    @Override
+    public Long save(User user) {
+        int shard = shardOfEmail(user.getEmail());
+        Long localId = shards.get(shard).save(user);
+        Long id = toGlobalId(localId, shard);
+        user.setId(id);
+        return id;
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        users.forEach(user -> usersByShard.computeIfAbsent(shardOfEmail(user.getEmail()), shard -> new ArrayList<>()).add(user));
+
+        List<Long> savedIds = new ArrayList<>(users.size());
+        List<BatchFailure> failures = new ArrayList<>();
+        onShards(usersByShard, (shard, shardUsers) -> {
+            BatchSaveResult result = shards.get(shard).saveAll(shardUsers);
+            shardUsers.stream()
+                .filter(user -> user.getId() != null)
+                .forEach(user -> user.setId(toGlobalId(user.getId(), shard)));
+            return result;
+        }).forEach((shard, result) -> {
+            result.savedIds().forEach(localId -> savedIds.add(toGlobalId(localId, shard)));
+            failures.addAll(result.failures());
+        });
+        return new BatchSaveResult(savedIds, failures);
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        users.forEach(user -> usersByShard.computeIfAbsent(shardOfEmail(user.getEmail()), shard -> new ArrayList<>()).add(user));
+
+        List<Long> insertedIds = new ArrayList<>();
+        List<Long> updatedIds = new ArrayList<>();
+        onShards(usersByShard, (shard, shardUsers) -> {
+            BatchUpsertResult result = shards.get(shard).upsertAll(shardUsers);
+            shardUsers.forEach(user -> user.setId(toGlobalId(user.getId(), shard)));
+            return result;
+        }).forEach((shard, result) -> {
+            result.insertedIds().forEach(localId -> insertedIds.add(toGlobalId(localId, shard)));
+            result.updatedIds().forEach(localId -> updatedIds.add(toGlobalId(localId, shard)));
+        });
+        return new BatchUpsertResult(insertedIds, updatedIds);
+    }
+
+    @Override
+    public User findById(Long id) {
+        return findOptionalById(id).orElseThrow(() -> UserNotFoundException.byId(id));
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        int shard = shardOfId(id);
+        return shards.get(shard).findOptionalById(toLocalId(id)).map(user -> toGlobal(user, shard));
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        Map<Integer, List<Long>> localIdsByShard = groupLocalIds(new LinkedHashSet<>(ids));
+        Map<Long, User> found = new HashMap<>();
+        onShards(localIdsByShard, (shard, localIds) -> shards.get(shard).findByIds(localIds))
+            .forEach((shard, result) -> result.found().values()
+                .forEach(user -> found.put(toGlobal(user, shard).getId(), user)));
+
+        Set<Long> missing = new LinkedHashSet<>(ids);
+        missing.removeAll(found.keySet());
+        return new UserLookupResult(found, missing);
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        int home = shardOfEmail(email);
+        return toGlobal(shards.get(home).findByEmail(email), home);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return shards.get(shardOfEmail(email)).existsByEmail(email);
+    }
+
+    @Override
+    public void update(User user) {
+        if (updateIfPresent(user) == 0) {
+            throw UserNotFoundException.byId(user.getId());
+        }
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        if (isMoving(user)) {
+            return move(user);
+        }
+        User localUser = toLocal(user);
+        int affected = shards.get(shardOfId(user.getId())).updateIfPresent(localUser);
+        user.setVersion(localUser.getVersion());
+        user.setUpdatedAt(localUser.getUpdatedAt());
+        return affected;
+    }
+
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        List<User> moving = new ArrayList<>();
+        for (User user : users) {
+            if (isMoving(user)) {
+                moving.add(user);
+            } else {
+                usersByShard.computeIfAbsent(shardOfId(user.getId()), shard -> new ArrayList<>()).add(toLocal(user));
+            }
+        }
+        BatchUpdateResult result = mergeUpdates(onShards(usersByShard, (shard, shardUsers) -> shards.get(shard).updateAll(shardUsers)));
+        if (moving.isEmpty()) {
+            return result;
+        }
+        int updated = result.updated();
+        Set<Long> missing = new LinkedHashSet<>(result.missing());
+        Set<Long> conflicts = new LinkedHashSet<>(result.conflicts());
+        for (User user : moving) {
+            Long id = user.getId();
+            try {
+                if (move(user) == 0) {
+                    missing.add(id);
+                } else {
+                    updated++;
+                }
+            } catch (OptimisticConflictException e) {
+                conflicts.add(id);
+            }
+        }
+        return new BatchUpdateResult(updated, missing, conflicts);
+    }
+
+    @Override
+    public void delete(Long id) {
+        if (deleteIfPresent(id) == 0) {
+            throw UserNotFoundException.byId(id);
+        }
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        return shards.get(shardOfId(id)).deleteIfPresent(toLocalId(id));
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        Map<Integer, List<Long>> localIdsByShard = groupLocalIds(ids);
+        return mergeUpdates(onShards(localIdsByShard, (shard, localIds) -> shards.get(shard).deleteAll(localIds)));
+    }
+
+    @Override
+    public Long forEachBatch(Long afterId, int batchSize, Predicate<List<User>> batchConsumer) {
+        Long lastSeenId = afterId;
+        try (Stream<User> users = stream(afterId, batchSize)) {
+            Iterator<User> iterator = users.iterator();
+            List<User> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize) {
+                    lastSeenId = batch.get(batch.size() - 1).getId();
+                    if (!batchConsumer.test(batch)) {
+                        return lastSeenId;
+                    }
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                lastSeenId = batch.get(batch.size() - 1).getId();
+                batchConsumer.test(batch);
+            }
+            return lastSeenId;
+        }
+    }
+
+    @Override
+    public Stream<User> stream(Long afterId, int fetchSize) {
+        List<Stream<User>> shardStreams = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int owner = shard;
+            Long localAfterId = afterId == null ? null : Math.floorDiv(afterId - shard, (long) shards.size());
+            shardStreams.add(shards.get(shard).stream(localAfterId, fetchSize).map(user -> toGlobal(user, owner)));
+        }
+        Iterator<User> merged = new MergingIterator(shardStreams.stream().map(Stream::iterator).toList());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false)
+            .onClose(() -> shardStreams.forEach(Stream::close));
+    }
+
+    // Within one shard global ids grow with local ids, so the global cursor maps to a local one
+    @Override
+    public List<UserChange> findChangedSince(LocalDateTime since, Long lastId, int limit) {
+        Map<Integer, Long> localLastIds = new TreeMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            localLastIds.put(shard, lastId == null ? null : Math.floorDiv(lastId - shard, (long) shards.size()));
+        }
+        List<UserChange> changes = new ArrayList<>();
+        onShards(localLastIds, (shard, localLastId) -> shards.get(shard).findChangedSince(since, localLastId, limit))
+            .forEach((shard, shardChanges) -> shardChanges.forEach(change -> changes.add(change.isDeleted()
+                ? UserChange.deleted(toGlobalId(change.id(), shard), change.changedAt())
+                : UserChange.updated(toGlobal(change.user(), shard)))));
+        changes.sort(UserChange.FEED_ORDER);
+        return changes.size() > limit ? List.copyOf(changes.subList(0, limit)) : changes;
+    }
+
+    @Override
+    public List<User> search(String query, int limit) {
+        String normalized = UserSearch.normalize(query);
+        Map<Integer, String> allShards = new TreeMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            allShards.put(shard, query);
+        }
+        List<User> users = new ArrayList<>();
+        onShards(allShards, (shard, shardQuery) -> shards.get(shard).search(shardQuery, limit))
+            .forEach((shard, shardUsers) -> shardUsers.forEach(user -> users.add(toGlobal(user, shard))));
+        users.sort(UserSearch.order(normalized));
+        return users.size() > limit ? List.copyOf(users.subList(0, limit)) : users;
+    }
+
+    // The consumer is called from several threads at once
+    public void forEachBatchInParallel(int batchSize, Predicate<List<User>> batchConsumer) {
+        Map<Integer, Integer> allShards = new TreeMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            allShards.put(shard, batchSize);
+        }
+        AtomicBoolean stopped = new AtomicBoolean();
+        onShards(allShards, (shard, size) -> shards.get(shard).forEachBatch(null, size, batch -> {
+            if (stopped.get()) {
+                return false;
+            }
+            batch.forEach(user -> toGlobal(user, shard));
+            if (!batchConsumer.test(batch)) {
+                stopped.set(true);
+                return false;
+            }
+            return true;
+        }));
+    }
+
+    private <K, T> Map<Integer, T> onShards(Map<Integer, K> work, BiFunction<Integer, K, T> operation) {
+        // The unit of work is bound to this thread, so inside one the shards are worked on one after another
+        if (work.size() == 1 || UnitOfWork.current() != null) {
+            Map<Integer, T> results = new TreeMap<>();
+            work.forEach((shard, value) -> results.put(shard, operation.apply(shard, value)));
+            return results;
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<Integer, Future<T>> futures = new TreeMap<>();
+            work.forEach((shard, value) -> futures.put(shard, executor.submit(() -> operation.apply(shard, value))));
+            Map<Integer, T> results = new TreeMap<>();
+            for (Map.Entry<Integer, Future<T>> future : futures.entrySet()) {
+                results.put(future.getKey(), future.getValue().get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new AppException("Shard operation failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Shard operation interrupted", e);
+        }
+    }
+
+    private Map<Integer, List<Long>> groupLocalIds(Collection<Long> ids) {
+        Map<Integer, List<Long>> localIdsByShard = new TreeMap<>();
+        ids.forEach(id -> localIdsByShard.computeIfAbsent(shardOfId(id), shard -> new ArrayList<>()).add(toLocalId(id)));
+        return localIdsByShard;
+    }
+
+    private BatchUpdateResult mergeUpdates(Map<Integer, BatchUpdateResult> results) {
+        int updated = 0;
+        Set<Long> missing = new LinkedHashSet<>();
+        Set<Long> conflicts = new LinkedHashSet<>();
+        for (Map.Entry<Integer, BatchUpdateResult> result : results.entrySet()) {
+            updated += result.getValue().updated();
+            result.getValue().missing().forEach(localId -> missing.add(toGlobalId(localId, result.getKey())));
+            result.getValue().conflicts().forEach(localId -> conflicts.add(toGlobalId(localId, result.getKey())));
+        }
+        return new BatchUpdateResult(updated, missing, conflicts);
+    }
+
+    private boolean isMoving(User user) {
+        return user.getEmail() != null && shardOfEmail(user.getEmail()) != shardOfId(user.getId());
+    }
+
+    // The id encodes the shard, so a user whose new email belongs to another shard is inserted there under a new id
+    private int move(User user) {
+        int from = shardOfId(user.getId());
+        int to = shardOfEmail(user.getEmail());
+        Long localId = toLocalId(user.getId());
+        Optional<User> stored = shards.get(from).findOptionalById(localId);
+        if (stored.isEmpty()) {
+            return 0;
+        }
+        User moved = new User(null, user.getName(), user.getEmail(), stored.get().getCreatedAt(), null,
+            LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+        Long movedId = shards.get(to).save(moved);
+        // The old row is only removed once an update has checked the expected version
+        int affected;
+        try {
+            affected = shards.get(from).updateIfPresent(toLocal(user));
+        } catch (RuntimeException e) {
+            shards.get(to).deleteIfPresent(movedId);
+            throw e;
+        }
+        if (affected == 0) {
+            shards.get(to).deleteIfPresent(movedId);
+            return 0;
+        }
+        shards.get(from).deleteIfPresent(localId);
+        log.debug("DAO sharding: Moved user with id={} from shard {} to shard {}", user.getId(), from, to);
+        user.setId(toGlobalId(movedId, to));
+        user.setCreatedAt(moved.getCreatedAt());
+        user.setVersion(moved.getVersion());
+        user.setUpdatedAt(moved.getUpdatedAt());
+        return 1;
+    }
+
+    private Long toGlobalId(Long localId, int shard) {
+        return localId * shards.size() + shard;
+    }
+
+    private Long toLocalId(Long id) {
+        return Math.floorDiv(id, (long) shards.size());
+    }
+
+    private User toGlobal(User user, int shard) {
+        user.setId(toGlobalId(user.getId(), shard));
+        return user;
+    }
+
+    private User toLocal(User user) {
+        return new User(toLocalId(user.getId()), user.getName(), user.getEmail(), user.getCreatedAt(), user.getVersion(),
+            user.getUpdatedAt());
+    }
+
+    private static final class MergingIterator implements Iterator<User> {
+
+        private final PriorityQueue<Map.Entry<User, Iterator<User>>> heads =
+            new PriorityQueue<>(Comparator.comparing(head -> head.getKey().getId()));
+
+        MergingIterator(List<Iterator<User>> iterators) {
+            iterators.forEach(this::advance);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public User next() {
+            Map.Entry<User, Iterator<User>> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.getValue());
+            return head.getKey();
+        }
+
+        private void advance(Iterator<User> iterator) {
+            if (iterator.hasNext()) {
+                heads.add(Map.entry(iterator.next(), iterator));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+package ru.aston.intensive.dao;
+
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.exception.AppException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public final class UnitOfWork {
+
+    private static final Logger log = LoggerFactory.getLogger(UnitOfWork.class);
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    public enum Propagation {
+        REQUIRED, REQUIRES_NEW
+    }
+
+    private final boolean readOnly;
+    private final Map<SessionFactory, Session> sessions = new LinkedHashMap<>();
+    private final List<Consumer<Boolean>> completionCallbacks = new ArrayList<>();
+    private boolean rollbackOnly;
+
+    private UnitOfWork(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public static <T> T run(Propagation propagation, boolean readOnly, Supplier<T> work) {
+        UnitOfWork current = CURRENT.get();
+        if (current != null && propagation == Propagation.REQUIRED) {
+            if (current.readOnly && !readOnly) {
+                throw new AppException("Cannot join a read-only unit of work for writing");
+            }
+            try {
+                return work.get();
+            } catch (Throwable e) {
+                current.rollbackOnly = true;
+                throw e;
+            }
+        }
+        UnitOfWork unit = new UnitOfWork(readOnly);
+        CURRENT.set(unit);
+        try {
+            T result;
+            try {
+                result = work.get();
+            } catch (Throwable e) {
+                unit.end(false);
+                throw e;
+            }
+            if (unit.rollbackOnly && !readOnly) {
+                unit.end(false);
+                throw new AppException("Unit of work rolled back because a nested operation failed");
+            }
+            unit.end(!unit.rollbackOnly);
+            return result;
+        } finally {
+            // A suspended unit kept its sessions and resumes where it left off
+            if (current == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(current);
+            }
+        }
+    }
+
+    static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    static boolean isWriting() {
+        UnitOfWork current = CURRENT.get();
+        return current != null && !current.readOnly;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    Session session(SessionFactory factory, boolean write) {
+        if (write && readOnly) {
+            throw new AppException("Write attempted in a read-only unit of work");
+        }
+        Session session = sessions.get(factory);
+        if (session == null) {
+            session = SessionCancellation.track(factory.openSession());
+            session.beginTransaction();
+            // DAO writes are explicit statements, loaded entities must never be flushed behind their back
+            session.setDefaultReadOnly(true);
+            if (readOnly) {
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+                session.doWork(connection -> connection.setReadOnly(true));
+            } else {
+                // Neither serve this unit's reads from, nor publish its uncommitted rows to, the shared cache
+                session.setCacheMode(CacheMode.IGNORE);
+            }
+            sessions.put(factory, session);
+        }
+        return session;
+    }
+
+    // A failed statement aborts the database transaction, only a read-only unit can go on with a new session
+    void failed(SessionFactory factory) {
+        if (!readOnly) {
+            rollbackOnly = true;
+            return;
+        }
+        Session session = sessions.remove(factory);
+        if (session != null) {
+            rollback(session);
+        }
+    }
+
+    void afterCompletion(Consumer<Boolean> callback) {
+        completionCallbacks.add(callback);
+    }
+
+    private void end(boolean commit) {
+        boolean committed = commit;
+        RuntimeException failure = null;
+        for (Session session : sessions.values()) {
+            if (!committed) {
+                rollback(session);
+                continue;
+            }
+            try {
+                session.getTransaction().commit();
+                session.close();
+            } catch (RuntimeException e) {
+                // Databases committed before stay committed, the rest is rolled back
+                failure = e;
+                committed = false;
+                rollback(session);
+            }
+        }
+        sessions.clear();
+        CURRENT.remove();
+        for (Consumer<Boolean> callback : completionCallbacks) {
+            try {
+                callback.accept(committed);
+            } catch (RuntimeException e) {
+                log.warn("DAO unit of work: Completion callback failed: {}", e.getMessage());
+            }
+        }
+        if (failure != null) {
+            throw new AppException("Unit of work commit failed", failure);
+        }
+    }
+
+    private static void rollback(Session session) {
+        try {
+            if (session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+        } catch (HibernateException e) {
+            log.warn("DAO unit of work: Rollback failed: {}", e.getMessage());
+        } finally {
+            if (session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+public record UserChange(Long id, LocalDateTime changedAt, User user) {
+
+    public static final Comparator<UserChange> FEED_ORDER =
+        Comparator.comparing(UserChange::changedAt).thenComparing(UserChange::id);
+
+    public static UserChange updated(User user) {
+        return new UserChange(user.getId(), user.getUpdatedAt(), user);
+    }
+
+    public static UserChange deleted(Long id, LocalDateTime deletedAt) {
+        return new UserChange(id, deletedAt, null);
+    }
+
+    public boolean isDeleted() {
+        return user == null;
+    }
+
+}
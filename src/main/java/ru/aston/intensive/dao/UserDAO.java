@@ -1,15 +1,49 @@
 package ru.aston.intensive.dao;
 
 import ru.aston.intensive.entity.User;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public interface UserDAO {
 
     Long save(User user);
 
+    BatchSaveResult saveAll(Collection<User> users);
+
+    BatchUpsertResult upsertAll(Collection<User> users);
+
     User findById(Long id);
 
+    Optional<User> findOptionalById(Long id);
+
+    UserLookupResult findByIds(Collection<Long> ids);
+
+    User findByEmail(String email);
+
+    boolean existsByEmail(String email);
+
     void update(User user);
 
+    int updateIfPresent(User user);
+
+    BatchUpdateResult updateAll(Collection<User> users);
+
     void delete(Long id);
 
+    int deleteIfPresent(Long id);
+
+    BatchUpdateResult deleteAll(Collection<Long> ids);
+
+    Long forEachBatch(Long afterId, int batchSize, Predicate<List<User>> batchConsumer);
+
+    Stream<User> stream(Long afterId, int fetchSize);
+
+    List<UserChange> findChangedSince(LocalDateTime since, Long lastId, int limit);
+
+    List<User> search(String query, int limit);
+
 }
@@ -1,24 +1,124 @@
 package ru.aston.intensive.dao;
 
+import jakarta.persistence.PersistenceException;
 import org.hibernate.*;
+import org.hibernate.cache.spi.TimestampsCache;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.aston.intensive.dao.BatchSaveResult.BatchFailure;
 import ru.aston.intensive.entity.User;
+import ru.aston.intensive.entity.UserTombstone;
 import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.OptimisticConflictException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UserDAOHibernateImpl implements UserDAO {
 
-    private final SessionFactory sessionFactory;
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int IN_CHUNK_SIZE = 1000;
+    public static final String LOOKUP_CACHE_REGION = "user-lookups";
+    private static final String UPDATE_SQL = "update users set name = ?, email = ?, version = version + 1, updated_at = ? "
+        + "where id = ? and version = coalesce(?, version)";
+    private static final String UPSERT_SQL = "insert into users (id, name, email, created_at, updated_at, version) values %s "
+        + "on conflict (email) do update set name = excluded.name, updated_at = excluded.updated_at, version = users.version + 1 "
+        + "returning id, email, version, created_at";
+    private static final String UPSERT_ROW = "(?, ?, ?, ?, ?, 0)";
+    // H2 has no on conflict clause and its merge no returning clause, the merged rows are read back as a delta table
+    private static final String MERGE_SQL = "select id, email, version, created_at from final table (merge into users "
+        + "using (values %s) as upserted (id, name, email, created_at, updated_at) on users.email = upserted.email "
+        + "when matched then update set name = upserted.name, updated_at = upserted.updated_at, version = users.version + 1 "
+        + "when not matched then insert (id, name, email, created_at, updated_at, version) "
+        + "values (upserted.id, upserted.name, upserted.email, upserted.created_at, upserted.updated_at, 0))";
+    private static final String MERGE_ROW = "(cast(? as bigint), cast(? as varchar), cast(? as varchar), "
+        + "cast(? as timestamp(6)), cast(? as timestamp(6)))";
+    private static final String DELETE_SQL = "delete from users where id = ?";
+    private static final String INSERT_TOMBSTONE_SQL = "insert into user_tombstones (id, deleted_at) values (?, ?)";
+    private static final LocalDateTime FEED_START = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final String SEARCH_BY_SUBSTRING =
+        "lower(u.name) like :contains escape '\\' or lower(u.email) like :contains escape '\\'";
+    private static final String SEARCH_BY_PREFIX =
+        "lower(u.name) like :prefix escape '\\' or lower(u.email) like :prefix escape '\\'";
+    private static final String SEARCH_RANK = "case"
+        + " when lower(u.name) = :query or lower(u.email) = :query then " + UserSearch.EXACT
+        + " when lower(u.name) like :prefix escape '\\' or lower(u.email) like :prefix escape '\\' then " + UserSearch.PREFIX
+        + " when " + wordsOf("u.name") + " like :word escape '\\' or " + wordsOf("u.email") + " like :word escape '\\' then "
+        + UserSearch.WORD_PREFIX
+        + " else " + UserSearch.SUBSTRING + " end";
+
+    private final Supplier<SessionFactory> sessionFactory;
+    private final int batchSize;
+    private volatile Optional<TimeZone> jdbcTimeZone;
     private static final Logger log = LoggerFactory.getLogger(UserDAOHibernateImpl.class);
 
     public UserDAOHibernateImpl(SessionFactory sessionFactory) {
+        this(() -> sessionFactory, DEFAULT_BATCH_SIZE);
+    }
+
+    public UserDAOHibernateImpl(SessionFactory sessionFactory, int batchSize) {
+        this(() -> sessionFactory, batchSize);
+    }
+
+    public UserDAOHibernateImpl(Supplier<SessionFactory> sessionFactory) {
+        this(sessionFactory, DEFAULT_BATCH_SIZE);
+    }
+
+    public UserDAOHibernateImpl(Supplier<SessionFactory> sessionFactory, int batchSize) {
+        if (batchSize < 1) {
+            throw new AppException(String.format("Invalid batch size: %s", batchSize));
+        }
         this.sessionFactory = sessionFactory;
+        this.batchSize = batchSize;
     }
 
     @Override
     public Long save(User user) {
+        if (UnitOfWork.current() != null) {
+            return saveInUnit(user);
+        }
         Transaction transaction = null;
-        try (Session session = sessionFactory.openSession()) {
+        try (Session session = openSession()) {
             transaction = session.beginTransaction();
             session.persist(user);
             log.debug("DAO: Saved new user={}", user);
@@ -33,61 +133,729 @@ public class UserDAOHibernateImpl implements UserDAO {
         }
     }
 
+    private Long saveInUnit(User user) {
+        try {
+            return inSession(true, session -> {
+                session.persist(user);
+                session.flush();
+                session.detach(user);
+                log.debug("DAO: Saved new user={} in the current unit of work", user);
+                return user.getId();
+            });
+        } catch (HibernateException e) {
+            throw new AppException("Save failed", e);
+        }
+    }
+
+    @Override
+    public BatchSaveResult saveAll(Collection<User> users) {
+        if (UnitOfWork.current() != null) {
+            return saveAllInUnit(users);
+        }
+        List<Long> savedIds = new ArrayList<>(users.size());
+        List<BatchFailure> failures = new ArrayList<>();
+        try (Session session = openSession()) {
+            session.setJdbcBatchSize(batchSize);
+            List<User> batch = new ArrayList<>(batchSize);
+            int batchIndex = 0;
+            for (User user : users) {
+                batch.add(user);
+                if (batch.size() == batchSize) {
+                    saveBatch(session, batchIndex++, batch, savedIds, failures);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                saveBatch(session, batchIndex, batch, savedIds, failures);
+            }
+            log.debug("DAO: Saved {} users, {} batches failed", savedIds.size(), failures.size());
+
+            return new BatchSaveResult(savedIds, failures);
+        } catch (HibernateException e) {
+            throw new AppException("Batch save failed", e);
+        }
+    }
+
+    private BatchSaveResult saveAllInUnit(Collection<User> users) {
+        try {
+            return inSession(true, session -> {
+                List<Long> savedIds = new ArrayList<>(users.size());
+                for (User user : users) {
+                    session.persist(user);
+                    savedIds.add(user.getId());
+                    if (savedIds.size() % batchSize == 0) {
+                        session.flush();
+                    }
+                }
+                session.flush();
+                users.forEach(session::detach);
+                log.debug("DAO: Saved {} users in the current unit of work", savedIds.size());
+                return new BatchSaveResult(savedIds, List.of());
+            });
+        } catch (HibernateException e) {
+            throw new AppException("Batch save failed", e);
+        }
+    }
+
+    private void saveBatch(Session session, int batchIndex, List<User> batch,
+                           List<Long> savedIds, List<BatchFailure> failures) {
+        Transaction transaction = session.beginTransaction();
+        try {
+            batch.forEach(session::persist);
+            session.flush();
+            transaction.commit();
+            batch.forEach(user -> savedIds.add(user.getId()));
+        } catch (PersistenceException | IllegalStateException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            batch.forEach(user -> user.setId(null));
+            failures.add(new BatchFailure(batchIndex, batch, e.getMessage()));
+            log.warn("DAO: Batch #{} of {} users failed: {}", batchIndex, batch.size(), e.getMessage());
+        } finally {
+            session.clear();
+        }
+    }
+
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        // A statement must not update the same row twice, the last occurrence of an email wins
+        Map<String, User> usersByEmail = new LinkedHashMap<>();
+        users.forEach(user -> usersByEmail.put(user.getEmail(), user));
+        List<User> upserted = List.copyOf(usersByEmail.values());
+        if (upserted.isEmpty()) {
+            return new BatchUpsertResult(List.of(), List.of());
+        }
+        LocalDateTime now = now();
+        Map<String, User> stored = new HashMap<>();
+        List<Runnable> cacheLocks = new ArrayList<>();
+        try {
+            inSession(true, session -> {
+                SharedSessionContractImplementor sessionImplementor = session.unwrap(SharedSessionContractImplementor.class);
+                BeforeExecutionGenerator idGenerator = (BeforeExecutionGenerator) sessionImplementor.getFactory()
+                    .getMappingMetamodel().getEntityDescriptor(User.class).getGenerator();
+                boolean merge = sessionImplementor.getJdbcServices().getDialect() instanceof H2Dialect;
+                Map<String, Long> newIds = new HashMap<>();
+                upserted.forEach(user -> newIds.put(user.getEmail(),
+                    (Long) idGenerator.generate(sessionImplementor, user, null, EventType.INSERT)));
+                doJdbcWork(session, connection -> {
+                    for (int from = 0; from < upserted.size(); from += batchSize) {
+                        upsertBatch(connection, merge, upserted.subList(from, Math.min(upserted.size(), from + batchSize)),
+                            newIds, now, stored);
+                    }
+                });
+                cacheLocks.add(lockCached(session, stored.values().stream()
+                    .filter(row -> row.getVersion() != 0).map(User::getId).toList()));
+                return null;
+            });
+        } catch (HibernateException e) {
+            throw new AppException("Upsert failed", e);
+        } finally {
+            releaseAfterCompletion(cacheLocks);
+        }
+
+        for (User user : users) {
+            User row = stored.get(user.getEmail());
+            user.setId(row.getId());
+            user.setVersion(row.getVersion());
+            user.setCreatedAt(row.getCreatedAt());
+            user.setUpdatedAt(now);
+        }
+        List<Long> insertedIds = new ArrayList<>();
+        List<Long> updatedIds = new ArrayList<>();
+        upserted.forEach(user -> (user.getVersion() == 0 ? insertedIds : updatedIds).add(user.getId()));
+        log.debug("DAO: Upserted {} users in one transaction, {} inserted, {} updated",
+            upserted.size(), insertedIds.size(), updatedIds.size());
+        return new BatchUpsertResult(insertedIds, updatedIds);
+    }
+
+    private void upsertBatch(Connection connection, boolean merge, List<User> batch, Map<String, Long> newIds,
+                             LocalDateTime now, Map<String, User> stored) throws SQLException {
+        String sql = merge ? String.format(MERGE_SQL, String.join(", ", Collections.nCopies(batch.size(), MERGE_ROW)))
+            : String.format(UPSERT_SQL, String.join(", ", Collections.nCopies(batch.size(), UPSERT_ROW)));
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (User user : batch) {
+                statement.setLong(index++, newIds.get(user.getEmail()));
+                statement.setString(index++, user.getName());
+                statement.setString(index++, user.getEmail());
+                bindTimestamp(statement, index++, user.getCreatedAt() != null ? user.getCreatedAt() : now);
+                bindTimestamp(statement, index++, now);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String email = resultSet.getString(2);
+                    stored.put(email, new User(resultSet.getLong(1), null, email, readTimestamp(resultSet, 4),
+                        resultSet.getLong(3), now));
+                }
+            }
+        }
+    }
+
     @Override
     public User findById(Long userId) {
-        try (Session session = sessionFactory.openSession()) {
-            log.debug("DAO: Fetching user by id={}", userId);
-            User existingUser = getExistingUser(userId, session);
-            log.debug("DAO: Found user={}", existingUser);
-            return existingUser;
+        return findOptionalById(userId).orElseThrow(() -> UserNotFoundException.byId(userId));
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long userId) {
+        try {
+            return inSession(false, session -> {
+                log.debug("DAO: Fetching user by id={}", userId);
+                User existingUser = session.get(User.class, userId);
+                log.debug("DAO: Found user={}", existingUser);
+                return Optional.ofNullable(existingUser);
+            });
         } catch (HibernateException e) {
             throw new AppException("Get failed", e);
         }
     }
 
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        return findByIds(ids, 1);
+    }
+
+    public UserLookupResult findByIds(Collection<Long> ids, int parallelism) {
+        List<List<Long>> chunks = chunk(new LinkedHashSet<>(ids), IN_CHUNK_SIZE);
+        if (chunks.isEmpty()) {
+            return new UserLookupResult(Map.of(), Set.of());
+        }
+        Map<Long, User> found = new HashMap<>();
+        try {
+            // A unit of work has a single session, which must not be shared between threads
+            if (parallelism > 1 && chunks.size() > 1 && UnitOfWork.current() == null) {
+                fetchChunksInParallel(chunks, parallelism).forEach(users -> putAll(found, users));
+            } else {
+                inStatelessSession(session -> {
+                    chunks.forEach(chunk -> putAll(found, fetchChunk(session, chunk)));
+                    return null;
+                });
+            }
+        } catch (HibernateException e) {
+            throw new AppException("Get by ids failed", e);
+        }
+
+        Set<Long> missing = new LinkedHashSet<>(ids);
+        missing.removeAll(found.keySet());
+        log.debug("DAO: Fetched {} users by ids, {} ids missing", found.size(), missing.size());
+        return new UserLookupResult(found, missing);
+    }
+
+    private List<List<User>> fetchChunksInParallel(List<List<Long>> chunks, int parallelism) {
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()))) {
+            List<Future<List<User>>> futures = chunks.stream()
+                .map(chunk -> executor.submit(() -> {
+                    try (StatelessSession session = openStatelessSession()) {
+                        return fetchChunk(session, chunk);
+                    }
+                }))
+                .toList();
+            List<List<User>> results = new ArrayList<>(futures.size());
+            for (Future<List<User>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HibernateException hibernateException) {
+                throw hibernateException;
+            }
+            throw new AppException("Get by ids failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Get by ids interrupted", e);
+        }
+    }
+
+    private List<User> fetchChunk(SharedSessionContract session, List<Long> chunk) {
+        return session.createSelectionQuery("from User where id in :ids", User.class)
+            .setParameterList("ids", chunk)
+            .getResultList();
+    }
+
+    private static void putAll(Map<Long, User> found, List<User> users) {
+        users.forEach(user -> found.put(user.getId(), user));
+    }
+
+    private static List<List<Long>> chunk(Collection<Long> ids, int chunkSize) {
+        List<List<Long>> chunks = new ArrayList<>();
+        List<Long> current = new ArrayList<>(chunkSize);
+        for (Long id : ids) {
+            current.add(id);
+            if (current.size() == chunkSize) {
+                chunks.add(current);
+                current = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+
+    @Override
+    public User findByEmail(String email) {
+        User existingUser;
+        try {
+            log.debug("DAO: Fetching user by email={}", email);
+            existingUser = inSession(false, session -> session.createSelectionQuery("from User where email = :email", User.class)
+                .setParameter("email", email)
+                .setCacheable(true)
+                .setCacheRegion(LOOKUP_CACHE_REGION)
+                .uniqueResult());
+        } catch (HibernateException e) {
+            throw new AppException("Get by email failed", e);
+        }
+        if (existingUser == null) {
+            throw UserNotFoundException.byEmail(email);
+        }
+        log.debug("DAO: Found user={}", existingUser);
+        return existingUser;
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        try {
+            return inSession(false, session -> session.createSelectionQuery("select 1 from User where email = :email", Integer.class)
+                .setParameter("email", email)
+                .setCacheable(true)
+                .setCacheRegion(LOOKUP_CACHE_REGION)
+                .uniqueResult() != null);
+        } catch (HibernateException e) {
+            throw new AppException("Email lookup failed", e);
+        }
+    }
+
     @Override
     public void update(User user) {
-        Transaction transaction = null;
-        try (Session session = sessionFactory.openSession()) {
-            transaction = session.beginTransaction();
+        if (updateIfPresent(user) == 0) {
+            throw UserNotFoundException.byId(user.getId());
+        }
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        try {
             log.debug("DAO: Updating existing user: new name={}, new email={}", user.getName(), user.getEmail());
-            User existingUser = getExistingUser(user.getId(), session);
-            existingUser.setName(user.getName());
-            existingUser.setEmail(user.getEmail());
-            log.debug("DAO: Updated user={}", existingUser);
-            transaction.commit();
-        } catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
+            BatchUpdateResult result = executeUpdates(List.of(user));
+            if (!result.conflicts().isEmpty()) {
+                throw OptimisticConflictException.of(user.getId(), user.getVersion());
             }
+            log.debug("DAO: Updated {} user with id={}", result.updated(), user.getId());
+            return result.updated();
+        } catch (HibernateException e) {
             throw new AppException("Update failed", e);
         }
     }
 
     @Override
-    public void delete(Long userId) {
-        Transaction transaction = null;
-        try (Session session = sessionFactory.openSession()) {
-            transaction = session.beginTransaction();
-            User existingUser = getExistingUser(userId, session);
-            log.debug("DAO: Deleting user: {}", existingUser);
-            session.remove(existingUser);
-            log.debug("DAO: Deleted user={}", existingUser);
-            transaction.commit();
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        try {
+            BatchUpdateResult result = executeUpdates(List.copyOf(users));
+            log.debug("DAO: Updated {} users in one transaction, {} not found, {} conflicts",
+                result.updated(), result.missing().size(), result.conflicts().size());
+            return result;
         } catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
+            throw new AppException("Batch update failed", e);
+        }
+    }
+
+    private BatchUpdateResult executeUpdates(List<User> batch) {
+        LocalDateTime now = now();
+        Set<Long> unaffected = executeJdbcBatch(UPDATE_SQL, batch, User::getId,
+            (statement, user) -> bindUpdate(statement, user, now), null);
+        Set<Long> conflicts = new LinkedHashSet<>();
+        if (!unaffected.isEmpty()) {
+            conflicts.addAll(inStatelessSession(session -> session.createSelectionQuery("select id from User where id in :ids", Long.class)
+                .setParameterList("ids", unaffected)
+                .getResultList()));
+        }
+        for (User user : batch) {
+            if (!unaffected.contains(user.getId())) {
+                user.setUpdatedAt(now);
+                if (user.getVersion() != null) {
+                    user.setVersion(user.getVersion() + 1);
+                }
+            }
+        }
+        Set<Long> missing = new LinkedHashSet<>(unaffected);
+        missing.removeAll(conflicts);
+        return new BatchUpdateResult(batch.size() - unaffected.size(), missing, conflicts);
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        List<Long> batch = List.copyOf(new LinkedHashSet<>(ids));
+        try {
+            Set<Long> missing = executeDeletes(batch);
+            log.debug("DAO: Deleted {} users in one transaction, {} not found", batch.size() - missing.size(), missing.size());
+            return new BatchUpdateResult(batch.size() - missing.size(), missing);
+        } catch (HibernateException e) {
+            throw new AppException("Batch delete failed", e);
+        }
+    }
+
+    private Set<Long> executeDeletes(List<Long> batch) {
+        LocalDateTime now = now();
+        return executeJdbcBatch(DELETE_SQL, batch, id -> id, UserDAOHibernateImpl::bindDelete,
+            (connection, deleted) -> {
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_TOMBSTONE_SQL)) {
+                    for (int i = 0; i < deleted.size(); i++) {
+                        statement.setLong(1, deleted.get(i));
+                        bindTimestamp(statement, 2, now);
+                        statement.addBatch();
+                        if ((i + 1) % batchSize == 0 || i == deleted.size() - 1) {
+                            statement.executeBatch();
+                        }
+                    }
+                }
+            });
+    }
+
+    private <T> Set<Long> executeJdbcBatch(String sql, List<T> rows, Function<T, Long> idOf, StatementBinder<T> binder,
+                                           FollowUp<T> followUp) {
+        Set<Long> missing = new LinkedHashSet<>();
+        if (rows.isEmpty()) {
+            return missing;
+        }
+        List<Long> ids = rows.stream().map(idOf).toList();
+        List<Runnable> cacheLocks = new ArrayList<>();
+        try {
+            inSession(true, session -> {
+                cacheLocks.add(lockCached(session, ids));
+                return doJdbcWork(session, connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                        int firstInBatch = 0;
+                        for (int i = 0; i < rows.size(); i++) {
+                            binder.bind(statement, rows.get(i));
+                            statement.addBatch();
+                            if ((i + 1) % batchSize == 0 || i == rows.size() - 1) {
+                                int[] counts = statement.executeBatch();
+                                for (int j = 0; j < counts.length; j++) {
+                                    if (counts[j] == 0) {
+                                        missing.add(idOf.apply(rows.get(firstInBatch + j)));
+                                    }
+                                }
+                                firstInBatch = i + 1;
+                            }
+                        }
+                    }
+                    if (followUp != null) {
+                        List<T> affected = rows.stream().filter(row -> !missing.contains(idOf.apply(row))).toList();
+                        if (!affected.isEmpty()) {
+                            followUp.run(connection, affected);
+                        }
+                    }
+                });
+            });
+        } finally {
+            releaseAfterCompletion(cacheLocks);
+        }
+        return missing;
+    }
+
+    // What a Hibernate bulk update does: soft locks keep readers that started before the commit from caching
+    // the old rows, and the users table's update timestamp makes query results cached meanwhile stale
+    private static Runnable lockCached(Session session, Collection<Long> ids) {
+        SharedSessionContractImplementor sessionImplementor = session.unwrap(SharedSessionContractImplementor.class);
+        EntityPersister persister = sessionImplementor.getFactory().getMappingMetamodel().getEntityDescriptor(User.class);
+        TimestampsCache timestamps = sessionImplementor.getFactory().getCache().getTimestampsCache();
+        String[] spaces = persister.getSynchronizationSpaces();
+        timestamps.preInvalidate(spaces, sessionImplementor);
+        EntityDataAccess cacheAccess = persister.getCacheAccessStrategy();
+        Map<Object, SoftLock> locks = new LinkedHashMap<>();
+        if (cacheAccess != null) {
+            for (Long id : ids) {
+                Object key = cacheAccess.generateCacheKey(id, persister, sessionImplementor.getFactory(),
+                    sessionImplementor.getTenantIdentifier());
+                locks.put(key, cacheAccess.lockItem(sessionImplementor, key, null));
             }
+        }
+        return () -> {
+            locks.forEach((key, lock) -> cacheAccess.unlockItem(sessionImplementor, key, lock));
+            timestamps.invalidate(spaces, sessionImplementor);
+        };
+    }
+
+    private void releaseAfterCompletion(List<Runnable> cacheLocks) {
+        UnitOfWork unit = UnitOfWork.current();
+        if (unit == null) {
+            cacheLocks.forEach(Runnable::run);
+        } else {
+            unit.afterCompletion(committed -> cacheLocks.forEach(Runnable::run));
+        }
+    }
+
+    private void bindUpdate(PreparedStatement statement, User user, LocalDateTime updatedAt) throws SQLException {
+        statement.setString(1, user.getName());
+        statement.setString(2, user.getEmail());
+        bindTimestamp(statement, 3, updatedAt);
+        statement.setLong(4, user.getId());
+        if (user.getVersion() == null) {
+            statement.setNull(5, Types.BIGINT);
+        } else {
+            statement.setLong(5, user.getVersion());
+        }
+    }
+
+    // Binds like Hibernate, so these timestamps compare correctly with entity-mapped ones
+    private void bindTimestamp(PreparedStatement statement, int index, LocalDateTime value) throws SQLException {
+        TimeZone jdbcTimeZone = jdbcTimeZone();
+        if (jdbcTimeZone == null) {
+            statement.setTimestamp(index, Timestamp.valueOf(value));
+        } else {
+            statement.setTimestamp(index, Timestamp.valueOf(value), Calendar.getInstance(jdbcTimeZone));
+        }
+    }
+
+    private LocalDateTime readTimestamp(ResultSet resultSet, int index) throws SQLException {
+        TimeZone jdbcTimeZone = jdbcTimeZone();
+        Timestamp value = jdbcTimeZone == null ? resultSet.getTimestamp(index)
+            : resultSet.getTimestamp(index, Calendar.getInstance(jdbcTimeZone));
+        return value == null ? null : value.toLocalDateTime();
+    }
+
+    private TimeZone jdbcTimeZone() {
+        Optional<TimeZone> timeZone = jdbcTimeZone;
+        if (timeZone == null) {
+            timeZone = Optional.ofNullable(sessionFactory.get().unwrap(SessionFactoryImplementor.class)
+                .getSessionFactoryOptions().getJdbcTimeZone());
+            jdbcTimeZone = timeZone;
+        }
+        return timeZone.orElse(null);
+    }
+
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    private static void bindDelete(PreparedStatement statement, Long id) throws SQLException {
+        statement.setLong(1, id);
+    }
+
+    @FunctionalInterface
+    private interface StatementBinder<T> {
+
+        void bind(PreparedStatement statement, T row) throws SQLException;
+
+    }
+
+    @FunctionalInterface
+    private interface FollowUp<T> {
+
+        void run(Connection connection, List<T> affected) throws SQLException;
+
+    }
+
+    @Override
+    public void delete(Long userId) {
+        if (deleteIfPresent(userId) == 0) {
+            throw UserNotFoundException.byId(userId);
+        }
+    }
+
+    @Override
+    public int deleteIfPresent(Long userId) {
+        try {
+            log.debug("DAO: Deleting user with id={}", userId);
+            int affected = executeDeletes(List.of(userId)).isEmpty() ? 1 : 0;
+            log.debug("DAO: Deleted {} user with id={}", affected, userId);
+            return affected;
+        } catch (HibernateException e) {
             throw new AppException("Delete failed", e);
         }
     }
 
-    private User getExistingUser(Long userId, Session session) {
-        User existingUser = session.get(User.class, userId);
-        if (existingUser == null) {
-            throw new AppException(String.format("User with id=%s not found", userId));
+    @Override
+    public Long forEachBatch(Long afterId, int batchSize, Predicate<List<User>> batchConsumer) {
+        Long lastSeenId = afterId;
+        try (StatelessSession session = openStatelessSession()) {
+            while (true) {
+                List<User> batch = fetchPage(session, lastSeenId, batchSize);
+                if (batch.isEmpty()) {
+                    return lastSeenId;
+                }
+                lastSeenId = batch.get(batch.size() - 1).getId();
+                log.debug("DAO: Fetched batch of {} users up to id={}", batch.size(), lastSeenId);
+                if (!batchConsumer.test(batch) || batch.size() < batchSize) {
+                    return lastSeenId;
+                }
+            }
+        } catch (HibernateException e) {
+            throw new AppException(String.format("Scan failed after id=%s", lastSeenId), e);
         }
-        return existingUser;
+    }
+
+    @Override
+    public Stream<User> stream(Long afterId, int fetchSize) {
+        return StreamSupport.stream(new KeysetSpliterator(afterId, fetchSize), false);
+    }
+
+    // Users are read before tombstones, so a user deleted in between shows up as changed and then as deleted
+    @Override
+    public List<UserChange> findChangedSince(LocalDateTime since, Long lastId, int limit) {
+        LocalDateTime from = since == null ? FEED_START : since;
+        long after = lastId == null ? Long.MIN_VALUE : lastId;
+        List<UserChange> changes = new ArrayList<>();
+        try {
+            inStatelessSession(session -> {
+                session.createSelectionQuery("from User where (updatedAt, id) > (:since, :lastId) order by updatedAt, id", User.class)
+                    .setParameter("since", from)
+                    .setParameter("lastId", after)
+                    .setMaxResults(limit)
+                    .getResultList()
+                    .forEach(user -> changes.add(UserChange.updated(user)));
+                session.createSelectionQuery("from UserTombstone where (deletedAt, id) > (:since, :lastId) order by deletedAt, id",
+                        UserTombstone.class)
+                    .setParameter("since", from)
+                    .setParameter("lastId", after)
+                    .setMaxResults(limit)
+                    .getResultList()
+                    .forEach(tombstone -> changes.add(UserChange.deleted(tombstone.getId(), tombstone.getDeletedAt())));
+                return null;
+            });
+        } catch (HibernateException e) {
+            throw new AppException(String.format("Change feed failed after %s, id=%s", since, lastId), e);
+        }
+        changes.sort(UserChange.FEED_ORDER);
+        return changes.size() > limit ? List.copyOf(changes.subList(0, limit)) : changes;
+    }
+
+    @Override
+    public List<User> search(String query, int limit) {
+        String normalized = UserSearch.normalize(query);
+        UserSearch.checkLimit(limit);
+        String escaped = escapeLike(normalized);
+        boolean bySubstring = normalized.length() >= UserSearch.MIN_SUBSTRING_QUERY;
+        try {
+            List<User> users = inStatelessSession(session -> {
+                NativeQuery<User> search = session.createNativeQuery("select u.* from users u where "
+                    + (bySubstring ? SEARCH_BY_SUBSTRING : SEARCH_BY_PREFIX)
+                        + " order by " + SEARCH_RANK + ", lower(u.name), u.id", User.class)
+                    .setParameter("query", normalized)
+                    .setParameter("prefix", escaped + "%")
+                    .setParameter("word", "% " + escaped + "%")
+                    .setMaxResults(limit);
+                if (bySubstring) {
+                    search.setParameter("contains", "%" + escaped + "%");
+                }
+                return search.getResultList();
+            });
+            log.debug("DAO: Search for '{}' found {} users", normalized, users.size());
+            return users;
+        } catch (HibernateException e) {
+            throw new AppException(String.format("Search for '%s' failed", query), e);
+        }
+    }
+
+    private static String wordsOf(String column) {
+        // Word separators become spaces, so a word start is a space followed by the query
+        return "(' ' || translate(lower(" + column + "), '" + UserSearch.WORD_SEPARATORS + "', '"
+            + " ".repeat(UserSearch.WORD_SEPARATORS.length()) + "'))";
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private List<User> fetchPage(StatelessSession session, Long afterId, int pageSize) {
+        return session.createSelectionQuery("from User where id > :afterId order by id", User.class)
+            .setParameter("afterId", afterId == null ? Long.MIN_VALUE : afterId)
+            .setFetchSize(pageSize)
+            .setMaxResults(pageSize)
+            .getResultList();
+    }
+
+    private class KeysetSpliterator extends Spliterators.AbstractSpliterator<User> {
+
+        private final int pageSize;
+        private Long lastSeenId;
+        private List<User> page = List.of();
+        private int position;
+        private boolean exhausted;
+
+        KeysetSpliterator(Long afterId, int pageSize) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+            this.lastSeenId = afterId;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super User> action) {
+            if (position == page.size()) {
+                if (exhausted) {
+                    return false;
+                }
+                try (StatelessSession session = openStatelessSession()) {
+                    page = fetchPage(session, lastSeenId, pageSize);
+                } catch (HibernateException e) {
+                    throw new AppException(String.format("Scan failed after id=%s", lastSeenId), e);
+                }
+                position = 0;
+                exhausted = page.size() < pageSize;
+                if (page.isEmpty()) {
+                    return false;
+                }
+            }
+            User user = page.get(position++);
+            lastSeenId = user.getId();
+            action.accept(user);
+            return true;
+        }
+
+    }
+
+    private Session openSession() {
+        return SessionCancellation.track(sessionFactory.get().openSession());
+    }
+
+    private StatelessSession openStatelessSession() {
+        return SessionCancellation.track(sessionFactory.get().openStatelessSession());
+    }
+
+    private <T> T inSession(boolean write, Function<Session, T> work) {
+        UnitOfWork unit = UnitOfWork.current();
+        if (unit != null) {
+            SessionFactory factory = sessionFactory.get();
+            try {
+                return work.apply(unit.session(factory, write));
+            } catch (PersistenceException e) {
+                unit.failed(factory);
+                throw e;
+            }
+        }
+        try (Session session = openSession()) {
+            if (!write) {
+                return work.apply(session);
+            }
+            Transaction transaction = session.beginTransaction();
+            try {
+                T result = work.apply(session);
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private <T> T inStatelessSession(Function<SharedSessionContract, T> work) {
+        if (UnitOfWork.current() != null) {
+            return inSession(false, work::apply);
+        }
+        try (StatelessSession session = openStatelessSession()) {
+            return work.apply(session);
+        }
+    }
+
+    private static Void doJdbcWork(Session session, Work work) {
+        session.flush();
+        session.doWork(work);
+        session.clear();
+        return null;
     }
 
 }
@@ -0,0 +1,13 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import java.util.Map;
+import java.util.Set;
+
+public record UserLookupResult(Map<Long, User> found, Set<Long> missing) {
+
+    public boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+}
@@ -0,0 +1,68 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+class UserPrefixIndex {
+
+    private final ConcurrentSkipListMap<String, Set<Long>> fields = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Set<Long>> words = new ConcurrentSkipListMap<>();
+
+    void add(User user) {
+        fieldsOf(user).forEach(field -> link(fields, field, user.getId()));
+        wordsOf(user).forEach(word -> link(words, word, user.getId()));
+    }
+
+    void remove(User user) {
+        fieldsOf(user).forEach(field -> unlink(fields, field, user.getId()));
+        wordsOf(user).forEach(word -> unlink(words, word, user.getId()));
+    }
+
+    Set<Long> search(String normalizedQuery) {
+        Set<Long> ids = new LinkedHashSet<>();
+        collect(fields, normalizedQuery, ids);
+        // Like the database, which only matches whole names and emails for short queries
+        if (normalizedQuery.length() >= UserSearch.MIN_SUBSTRING_QUERY) {
+            collect(words, normalizedQuery, ids);
+        }
+        return ids;
+    }
+
+    private static void collect(ConcurrentSkipListMap<String, Set<Long>> index, String prefix, Set<Long> ids) {
+        NavigableMap<String, Set<Long>> matches = index.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        matches.values().forEach(ids::addAll);
+    }
+
+    private static Set<String> fieldsOf(User user) {
+        return new LinkedHashSet<>(List.of(user.getName().toLowerCase(Locale.ROOT), user.getEmail().toLowerCase(Locale.ROOT)));
+    }
+
+    private static Set<String> wordsOf(User user) {
+        Set<String> words = new LinkedHashSet<>(UserSearch.words(user.getName()));
+        words.addAll(UserSearch.words(user.getEmail()));
+        words.removeAll(fieldsOf(user));
+        return words;
+    }
+
+    private static void link(ConcurrentSkipListMap<String, Set<Long>> index, String key, Long id) {
+        index.compute(key, (token, ids) -> {
+            Set<Long> linked = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            linked.add(id);
+            return linked;
+        });
+    }
+
+    private static void unlink(ConcurrentSkipListMap<String, Set<Long>> index, String key, Long id) {
+        index.computeIfPresent(key, (token, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+}
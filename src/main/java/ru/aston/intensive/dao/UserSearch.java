@@ -0,0 +1,82 @@
+package ru.aston.intensive.dao;
+
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+public final class UserSearch {
+
+    public static final int EXACT = 0;
+    public static final int PREFIX = 1;
+    public static final int WORD_PREFIX = 2;
+    public static final int SUBSTRING = 3;
+    public static final int NO_MATCH = 4;
+
+    // Trigram indexes serve substring matches from three characters on, shorter queries use the prefix indexes
+    static final int MIN_SUBSTRING_QUERY = 3;
+    // Characters that start a new word in names and emails, mirrored by the SQL translate() call
+    static final String WORD_SEPARATORS = " -.@_+";
+
+    private UserSearch() {
+    }
+
+    public static String normalize(String query) {
+        if (query == null || query.isBlank()) {
+            throw new AppException("Search query must not be empty");
+        }
+        return query.strip().toLowerCase(Locale.ROOT);
+    }
+
+    public static void checkLimit(int limit) {
+        if (limit < 1) {
+            throw new AppException(String.format("Invalid search limit: %s", limit));
+        }
+    }
+
+    public static int rank(User user, String normalizedQuery) {
+        return Math.min(rank(user.getName(), normalizedQuery), rank(user.getEmail(), normalizedQuery));
+    }
+
+    public static Comparator<User> order(String normalizedQuery) {
+        return Comparator.<User>comparingInt(user -> rank(user, normalizedQuery))
+            .thenComparing(user -> user.getName().toLowerCase(Locale.ROOT))
+            .thenComparing(User::getId);
+    }
+
+    static List<String> words(String value) {
+        List<String> words = new ArrayList<>();
+        String lower = value.toLowerCase(Locale.ROOT);
+        int start = 0;
+        for (int i = 0; i <= lower.length(); i++) {
+            if (i == lower.length() || WORD_SEPARATORS.indexOf(lower.charAt(i)) >= 0) {
+                if (i > start) {
+                    words.add(lower.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return words;
+    }
+
+    private static int rank(String value, String query) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        if (lower.equals(query)) {
+            return EXACT;
+        }
+        if (lower.startsWith(query)) {
+            return PREFIX;
+        }
+        int rank = NO_MATCH;
+        for (int at = lower.indexOf(query); at >= 0; at = lower.indexOf(query, at + 1)) {
+            if (WORD_SEPARATORS.indexOf(lower.charAt(at - 1)) >= 0) {
+                return WORD_PREFIX;
+            }
+            rank = SUBSTRING;
+        }
+        return rank;
+    }
+
+}
@@ -0,0 +1,362 @@
+package ru.aston.intensive.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class WriteBehindUserDAO extends ForwardingUserDAO implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindUserDAO.class);
+
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition flushCompleted = lock.newCondition();
+    private final LongAdder coalescedUpdates = new LongAdder();
+    private final LongAdder flushedUpdates = new LongAdder();
+    private final LongAdder failedUpdates = new LongAdder();
+    private final Thread flusher;
+    private final Thread shutdownHook;
+    private Map<Long, User> pending = new LinkedHashMap<>();
+    private Map<Long, User> writing = Map.of();
+    private Set<Long> unreportedFailures = new LinkedHashSet<>();
+    private long enqueuedSequence;
+    private long flushedSequence;
+    private boolean flushRequested;
+    private boolean closed;
+
+    public WriteBehindUserDAO(UserDAO delegate, int maxBatchSize, Duration flushInterval) {
+        super(delegate);
+        if (maxBatchSize < 1) {
+            throw new AppException(String.format("Invalid batch size: %s", maxBatchSize));
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.flusher = Thread.ofPlatform()
+            .name("user-write-behind")
+            .daemon(true)
+            .start(this::runFlusher);
+        // The flusher is a daemon, queued updates must not be lost when the JVM exits without close()
+        this.shutdownHook = Thread.ofPlatform().name("user-write-behind-shutdown").unstarted(this::drainAndStop);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    public void update(User user) {
+        if (UnitOfWork.current() != null) {
+            // Part of the unit's transaction, so it cannot wait for the queue; queued updates go first
+            drain();
+            delegate.update(user);
+            return;
+        }
+        if (user.getId() == null) {
+            throw new AppException("Update failed: user id is missing");
+        }
+        User snapshot = copyOf(user);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new AppException("Update failed: write-behind queue is closed");
+            }
+            if (pending.put(snapshot.getId(), snapshot) != null) {
+                coalescedUpdates.increment();
+            }
+            enqueuedSequence++;
+            if (pending.size() >= maxBatchSize) {
+                flushNeeded.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int updateIfPresent(User user) {
+        drain();
+        return delegate.updateIfPresent(user);
+    }
+
+    // Flushed first, so queued updates cannot overwrite the upserted names later
+    @Override
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        drain();
+        return delegate.upsertAll(users);
+    }
+
+    // Callers act on the missing and conflicting ids, so they are only known once the batch is written
+    @Override
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        drain();
+        return delegate.updateAll(users);
+    }
+
+    @Override
+    public User findById(Long id) {
+        User user = delegate.findById(id);
+        User pendingUser = pendingUser(id);
+        return pendingUser == null ? user : overlay(user, pendingUser);
+    }
+
+    @Override
+    public Optional<User> findOptionalById(Long id) {
+        return delegate.findOptionalById(id).map(user -> {
+            User pendingUser = pendingUser(id);
+            return pendingUser == null ? user : overlay(user, pendingUser);
+        });
+    }
+
+    @Override
+    public UserLookupResult findByIds(Collection<Long> ids) {
+        UserLookupResult result = delegate.findByIds(ids);
+        Map<Long, User> found = new HashMap<>(result.found());
+        found.replaceAll((id, user) -> {
+            User pendingUser = pendingUser(id);
+            return pendingUser == null ? user : overlay(user, pendingUser);
+        });
+        return new UserLookupResult(found, result.missing());
+    }
+
+    @Override
+    public void delete(Long id) {
+        lock.lock();
+        try {
+            pending.remove(id);
+        } finally {
+            lock.unlock();
+        }
+        delegate.delete(id);
+    }
+
+    @Override
+    public int deleteIfPresent(Long id) {
+        lock.lock();
+        try {
+            pending.remove(id);
+        } finally {
+            lock.unlock();
+        }
+        return delegate.deleteIfPresent(id);
+    }
+
+    @Override
+    public BatchUpdateResult deleteAll(Collection<Long> ids) {
+        lock.lock();
+        try {
+            ids.forEach(pending::remove);
+        } finally {
+            lock.unlock();
+        }
+        return delegate.deleteAll(ids);
+    }
+
+    // Returns the ids of users whose queued updates did not reach the database since the last flush
+    public Set<Long> flush() {
+        drain();
+        return takeFailures();
+    }
+
+    private void drain() {
+        lock.lock();
+        try {
+            long target = enqueuedSequence;
+            flushRequested = true;
+            flushNeeded.signal();
+            while (flushedSequence < target) {
+                if (!flusher.isAlive()) {
+                    throw new AppException("Flush failed: write-behind flusher is not running");
+                }
+                flushCompleted.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Flush interrupted", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Set<Long> takeFailures() {
+        lock.lock();
+        try {
+            Set<Long> failed = unreportedFailures;
+            unreportedFailures = new LinkedHashSet<>();
+            return failed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, the hook drains the queue
+        }
+        drainAndStop();
+    }
+
+    private void drainAndStop() {
+        lock.lock();
+        try {
+            closed = true;
+            flushNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Close interrupted", e);
+        }
+        Set<Long> failed = takeFailures();
+        if (!failed.isEmpty()) {
+            log.warn("DAO write-behind: Updates of users with ids={} were not written", failed);
+        }
+        log.debug("DAO write-behind: Closed, flushed={}, coalesced={}, failed={}",
+            flushedUpdates.sum(), coalescedUpdates.sum(), failedUpdates.sum());
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCoalescedUpdates() {
+        return coalescedUpdates.sum();
+    }
+
+    public long getFlushedUpdates() {
+        return flushedUpdates.sum();
+    }
+
+    public long getFailedUpdates() {
+        return failedUpdates.sum();
+    }
+
+    private void runFlusher() {
+        while (true) {
+            Map<Long, User> batch;
+            long batchSequence;
+            boolean lastBatch;
+            lock.lock();
+            try {
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (!closed && !flushRequested && pending.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    flushNeeded.awaitNanos(remaining);
+                }
+                batch = pending;
+                writing = batch;
+                pending = new LinkedHashMap<>();
+                batchSequence = enqueuedSequence;
+                flushRequested = false;
+                lastBatch = closed;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch.values());
+            }
+
+            lock.lock();
+            try {
+                writing = Map.of();
+                flushedSequence = batchSequence;
+                flushCompleted.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (lastBatch) {
+                return;
+            }
+        }
+    }
+
+    private void write(Collection<User> batch) {
+        try {
+            BatchUpdateResult result = delegate.updateAll(batch);
+            flushedUpdates.add(result.updated());
+            if (!result.missing().isEmpty()) {
+                fail(result.missing());
+                log.warn("DAO write-behind: Users with ids={} not found, updates dropped", result.missing());
+            }
+            if (!result.conflicts().isEmpty()) {
+                fail(result.conflicts());
+                log.warn("DAO write-behind: Users with ids={} were changed concurrently, updates dropped", result.conflicts());
+            }
+            log.debug("DAO write-behind: Flushed {} users in one transaction", batch.size());
+        } catch (RuntimeException e) {
+            log.warn("DAO write-behind: Group commit of {} users failed, retrying one by one: {}", batch.size(), e.getMessage());
+            batch.forEach(this::writeSingle);
+        }
+    }
+
+    private void writeSingle(User user) {
+        try {
+            delegate.update(user);
+            flushedUpdates.increment();
+        } catch (RuntimeException e) {
+            fail(Set.of(user.getId()));
+            log.error("DAO write-behind: Update of user with id={} failed: {}", user.getId(), e.getMessage());
+        }
+    }
+
+    private void fail(Set<Long> ids) {
+        failedUpdates.add(ids.size());
+        lock.lock();
+        try {
+            unreportedFailures.addAll(ids);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private User pendingUser(Long id) {
+        lock.lock();
+        try {
+            User pendingUser = pending.get(id);
+            return pendingUser == null ? writing.get(id) : pendingUser;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static User overlay(User stored, User pendingUser) {
+        User merged = copyOf(stored);
+        merged.setName(pendingUser.getName());
+        merged.setEmail(pendingUser.getEmail());
+        return merged;
+    }
+
+    private static User copyOf(User user) {
+        return new User(user.getId(), user.getName(), user.getEmail(), user.getCreatedAt(), user.getVersion(), user.getUpdatedAt());
+    }
+
+}
@@ -2,10 +2,15 @@ package ru.aston.intensive.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = @Index(name = "users_updated_at_id_idx", columnList = "updated_at, id"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
@@ -13,8 +18,11 @@ import java.time.LocalDateTime;
 @ToString
 public class User {
 
+    public static final String CACHE_REGION = "users";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "name", nullable = false)
@@ -24,7 +32,24 @@ public class User {
     private String email;
 
     @Column(name = "created_at")
-    private LocalDateTime createdAt = LocalDateTime.now();
+    // PostgreSQL keeps microseconds, the cached copy must not be more precise than the stored one
+    private LocalDateTime createdAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+
+    // Null means "overwrite whatever is stored", otherwise updates only apply to this version
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    // Set on every write, the change feed pages through users by (updatedAt, id)
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    void touchOnInsert() {
+        if (updatedAt == null) {
+            updatedAt = createdAt != null ? createdAt : LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        }
+    }
 
     @Override
     public boolean equals(Object o) {
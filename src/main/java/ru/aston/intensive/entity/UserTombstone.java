@@ -0,0 +1,22 @@
+package ru.aston.intensive.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "user_tombstones", indexes = @Index(name = "user_tombstones_deleted_at_id_idx", columnList = "deleted_at, id"))
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class UserTombstone {
+
+    @Id
+    private Long id;
+
+    @Column(name = "deleted_at", nullable = false)
+    private LocalDateTime deletedAt;
+
+}
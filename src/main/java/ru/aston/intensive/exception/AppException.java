@@ -10,4 +10,9 @@ public class AppException extends RuntimeException {
         super(message, cause);
     }
 
+    // Capturing the stack trace is most of the cost of throwing
+    protected AppException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
+
 }
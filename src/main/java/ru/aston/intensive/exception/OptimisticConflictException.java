@@ -0,0 +1,36 @@
+package ru.aston.intensive.exception;
+
+import java.io.Serial;
+
+public class OptimisticConflictException extends AppException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Long id;
+    private final Long expectedVersion;
+
+    public OptimisticConflictException(String message) {
+        super(message);
+        this.id = null;
+        this.expectedVersion = null;
+    }
+
+    private OptimisticConflictException(Long id, Long expectedVersion) {
+        super(null, false);
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+    }
+
+    // Conflicts are retried, so they are as cheap to throw as a missing user
+    public static OptimisticConflictException of(Long id, Long expectedVersion) {
+        return new OptimisticConflictException(id, expectedVersion);
+    }
+
+    @Override
+    public String getMessage() {
+        return id == null ? super.getMessage()
+            : String.format("User with id=%s was changed concurrently, expected version=%s", id, expectedVersion);
+    }
+
+}
@@ -0,0 +1,39 @@
+package ru.aston.intensive.exception;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class UserNotFoundException extends AppException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final String key;
+    private final Serializable value;
+
+    public UserNotFoundException(String message) {
+        super(message);
+        this.key = null;
+        this.value = null;
+    }
+
+    private UserNotFoundException(String key, Serializable value) {
+        super(null, false);
+        this.key = key;
+        this.value = value;
+    }
+
+    public static UserNotFoundException byId(Long id) {
+        return new UserNotFoundException("id", id);
+    }
+
+    public static UserNotFoundException byEmail(String email) {
+        return new UserNotFoundException("email", email);
+    }
+
+    @Override
+    public String getMessage() {
+        return key == null ? super.getMessage() : String.format("User with %s=%s not found", key, value);
+    }
+
+}
@@ -0,0 +1,20 @@
+package ru.aston.intensive.io;
+
+public record ExportSummary(long rows, long bytes, long elapsedMillis) {
+
+    public double throughputPerSecond() {
+        return elapsedMillis == 0 ? rows : rows * 1000.0 / elapsedMillis;
+    }
+
+    public double megabytesPerSecond() {
+        double megabytes = bytes / (1024.0 * 1024.0);
+        return elapsedMillis == 0 ? megabytes : megabytes * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Export finished: rows=%d, bytes=%d, elapsed=%dms, throughput=%.1f rows/s (%.2f MB/s)",
+            rows, bytes, elapsedMillis, throughputPerSecond(), megabytesPerSecond());
+    }
+
+}
@@ -0,0 +1,32 @@
+package ru.aston.intensive.io;
+
+import ru.aston.intensive.exception.AppException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+record ImportCheckpoint(long offset, long lineNumber) {
+
+    static final ImportCheckpoint START = new ImportCheckpoint(0, 0);
+
+    static ImportCheckpoint load(Path file) {
+        if (!Files.exists(file)) {
+            return START;
+        }
+        try {
+            String[] parts = Files.readString(file, StandardCharsets.UTF_8).trim().split(" ");
+            return new ImportCheckpoint(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        } catch (IOException | RuntimeException e) {
+            throw new AppException(String.format("Corrupted import checkpoint: %s", file), e);
+        }
+    }
+
+    void store(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, offset + " " + lineNumber, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,15 @@
+package ru.aston.intensive.io;
+
+public record ImportSummary(long rows, long imported, long rejected, long resumedFromLine, long elapsedMillis) {
+
+    public double throughputPerSecond() {
+        return elapsedMillis == 0 ? rows : rows * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Import finished: rows=%d, imported=%d, rejected=%d, resumedFromLine=%d, elapsed=%dms, throughput=%.1f/s",
+            rows, imported, rejected, resumedFromLine, elapsedMillis, throughputPerSecond());
+    }
+
+}
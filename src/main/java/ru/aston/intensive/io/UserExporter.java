@@ -0,0 +1,251 @@
+package ru.aston.intensive.io;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.exception.AppException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+public class UserExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(UserExporter.class);
+    private static final String SELECT_USERS = "select id, name, email, created_at from users order by id";
+    private static final String CSV_HEADER = "id,name,email,created_at\n";
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final List<Supplier<SessionFactory>> shards;
+    private final int fetchSize;
+
+    public UserExporter(Supplier<SessionFactory> sessionFactory) {
+        this(sessionFactory, DEFAULT_FETCH_SIZE);
+    }
+
+    public UserExporter(Supplier<SessionFactory> sessionFactory, int fetchSize) {
+        this(List.of(sessionFactory), fetchSize);
+    }
+
+    private UserExporter(List<Supplier<SessionFactory>> shards, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new AppException(String.format("Invalid fetch size: %s", fetchSize));
+        }
+        this.shards = List.copyOf(shards);
+        this.fetchSize = fetchSize;
+    }
+
+    public static UserExporter forShards(List<SessionFactory> sessionFactories, int fetchSize) {
+        return new UserExporter(sessionFactories.stream()
+            .<Supplier<SessionFactory>>map(sessionFactory -> () -> sessionFactory)
+            .toList(), fetchSize);
+    }
+
+    public ExportSummary export(Path output, UserFileFormat format, boolean compress) {
+        long start = System.nanoTime();
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        long rows;
+        long bytes;
+        try {
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+                RowWriter writer = new RowWriter(compress ? gzip(file) : file);
+                if (format == UserFileFormat.CSV) {
+                    writer.write(writer.row.append(CSV_HEADER));
+                }
+                rows = 0;
+                for (int shard = 0; shard < shards.size(); shard++) {
+                    rows += queryRows(shard, format, writer);
+                }
+                writer.close();
+            }
+            bytes = Files.size(temp);
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | HibernateException e) {
+            deleteQuietly(temp);
+            throw new AppException(String.format("Export to %s failed", output), e);
+        }
+
+        ExportSummary summary = new ExportSummary(rows, bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("{}", summary);
+        return summary;
+    }
+
+    private long queryRows(int shard, UserFileFormat format, RowWriter writer) {
+        SessionFactory sessionFactory = shards.get(shard).get();
+        TimeZone jdbcTimeZone = sessionFactory.unwrap(SessionFactoryImplementor.class)
+            .getSessionFactoryOptions().getJdbcTimeZone();
+        RowReader reader = new RowReader(shard, shards.size(),
+            jdbcTimeZone == null ? Calendar.getInstance() : Calendar.getInstance(jdbcTimeZone));
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            // PostgreSQL only streams with a cursor inside a transaction, otherwise the whole result is buffered
+            session.beginTransaction();
+            try {
+                long rows = session.doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(SELECT_USERS,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        statement.setFetchSize(fetchSize);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            return writeRows(format, resultSet, reader, writer);
+                        }
+                    } catch (IOException e) {
+                        throw new SQLException("Cannot write exported rows", e);
+                    }
+                });
+                session.getTransaction().commit();
+                return rows;
+            } catch (RuntimeException e) {
+                session.getTransaction().rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static long writeRows(UserFileFormat format, ResultSet resultSet, RowReader reader, RowWriter writer)
+        throws SQLException, IOException {
+        StringBuilder row = writer.row;
+        long rows = 0;
+        while (resultSet.next()) {
+            // Shard rows are written with the global ids ShardedUserDAO hands out
+            long id = resultSet.getLong(1) * reader.shardCount() + reader.shard();
+            String name = resultSet.getString(2);
+            String email = resultSet.getString(3);
+            Timestamp createdAt = resultSet.getTimestamp(4, reader.calendar());
+            if (format == UserFileFormat.CSV) {
+                row.append(id).append(',');
+                appendCsv(row, name).append(',');
+                appendCsv(row, email).append(',');
+                if (createdAt != null) {
+                    row.append(createdAt.toLocalDateTime());
+                }
+            } else {
+                row.append("{\"id\":").append(id).append(",\"name\":");
+                appendJson(row, name).append(",\"email\":");
+                appendJson(row, email).append(",\"created_at\":");
+                if (createdAt != null) {
+                    row.append('"').append(createdAt.toLocalDateTime()).append('"');
+                } else {
+                    row.append("null");
+                }
+                row.append('}');
+            }
+            writer.write(row.append('\n'));
+            rows++;
+        }
+        return rows;
+    }
+
+    private static StringBuilder appendCsv(StringBuilder row, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return row.append(value);
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        return row.append('"');
+    }
+
+    private static StringBuilder appendJson(StringBuilder row, String value) {
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> row.append("\\\"");
+                case '\\' -> row.append("\\\\");
+                case '\n' -> row.append("\\n");
+                case '\r' -> row.append("\\r");
+                case '\t' -> row.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        row.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        row.append(c);
+                    }
+                }
+            }
+        }
+        return row.append('"');
+    }
+
+    private static WritableByteChannel gzip(FileChannel file) throws IOException {
+        OutputStream compressed = new GZIPOutputStream(Channels.newOutputStream(file), BUFFER_SIZE);
+        return Channels.newChannel(compressed);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete {}", file, e);
+        }
+    }
+
+    // Timestamps are read in the JDBC time zone Hibernate writes them in
+    private record RowReader(int shard, int shardCount, Calendar calendar) {
+    }
+
+    private static final class RowWriter {
+
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final StringBuilder row = new StringBuilder(256);
+
+        RowWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(StringBuilder text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            CoderResult result;
+            while ((result = encoder.encode(chars, buffer, false)).isOverflow()) {
+                drain();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            text.setLength(0);
+        }
+
+        void close() throws IOException {
+            drain();
+            channel.close();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+    }
+
+}
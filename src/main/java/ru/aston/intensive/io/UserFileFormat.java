@@ -0,0 +1,22 @@
+package ru.aston.intensive.io;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+public enum UserFileFormat {
+    CSV, JSONL;
+
+    public static final String GZIP_SUFFIX = ".gz";
+
+    public static UserFileFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(GZIP_SUFFIX)) {
+            name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+        }
+        return name.endsWith(".jsonl") || name.endsWith(".json") ? JSONL : CSV;
+    }
+
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(GZIP_SUFFIX);
+    }
+}
@@ -0,0 +1,395 @@
+package ru.aston.intensive.io;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.dao.BatchSaveResult;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.service.UserService;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+public class UserImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(UserImporter.class);
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String REJECTS_SUFFIX = ".rejects";
+    private static final String DUPLICATE_EMAIL = "Duplicate email";
+
+    private static final RawChunk END_OF_INPUT = new RawChunk(-1, 0, List.of(), 0);
+    private static final ParsedChunk END_OF_PARSING = new ParsedChunk(-1, List.of(), List.of(), 0, 0);
+    private static final CsvColumns DEFAULT_COLUMNS = new CsvColumns(false, 2, 0, 1);
+
+    private final UserService userService;
+    private final int chunkSize;
+    private final int parseThreads;
+    private final int queueCapacity;
+
+    public UserImporter(UserService userService, int chunkSize, int parseThreads) {
+        if (chunkSize < 1 || parseThreads < 1) {
+            throw new AppException(String.format("Invalid chunk size=%s, parse threads=%s", chunkSize, parseThreads));
+        }
+        this.userService = userService;
+        this.chunkSize = chunkSize;
+        this.parseThreads = parseThreads;
+        this.queueCapacity = parseThreads * 2;
+    }
+
+    public static Path checkpointFile(Path input) {
+        return input.resolveSibling(input.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    public static Path rejectsFile(Path input) {
+        return input.resolveSibling(input.getFileName() + REJECTS_SUFFIX);
+    }
+
+    public ImportSummary importFile(Path input, UserFileFormat format) {
+        long start = System.nanoTime();
+        Path checkpointFile = checkpointFile(input);
+        ImportCheckpoint checkpoint = ImportCheckpoint.load(checkpointFile);
+        if (checkpoint.offset() > 0) {
+            log.info("Resuming import of {} from line {}", input, checkpoint.lineNumber() + 1);
+        }
+
+        BlockingQueue<RawChunk> rawChunks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<ParsedChunk> parsedChunks = new ArrayBlockingQueue<>(queueCapacity);
+        // Bounds chunks that were read but not committed yet, including those waiting for reordering
+        Semaphore chunksInFlight = new Semaphore(queueCapacity * 2 + parseThreads);
+        AtomicReference<Throwable> stageFailure = new AtomicReference<>();
+        Counters counters = new Counters();
+
+        CsvColumns columns;
+        try {
+            columns = format == UserFileFormat.CSV ? readCsvColumns(input) : DEFAULT_COLUMNS;
+        } catch (IOException e) {
+            throw new AppException(String.format("Import of %s failed", input), e);
+        }
+        ExecutorService stages = Executors.newFixedThreadPool(parseThreads + 1);
+        try (BufferedWriter rejects = openRejects(input, checkpoint)) {
+            stages.execute(() -> runStage(stageFailure, () -> read(input, checkpoint, rawChunks, chunksInFlight),
+                () -> {
+                    for (int i = 0; i < parseThreads; i++) {
+                        putUninterruptibly(rawChunks, END_OF_INPUT);
+                    }
+                }));
+            for (int i = 0; i < parseThreads; i++) {
+                stages.execute(() -> runStage(stageFailure, () -> parse(format, columns, rawChunks, parsedChunks),
+                    () -> putUninterruptibly(parsedChunks, END_OF_PARSING)));
+            }
+            write(parsedChunks, chunksInFlight, rejects, checkpointFile, counters);
+        } catch (IOException e) {
+            throw new AppException(String.format("Import of %s failed", input), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Import interrupted", e);
+        } finally {
+            stages.shutdownNow();
+        }
+
+        if (stageFailure.get() != null) {
+            throw new AppException(String.format("Import of %s failed", input), stageFailure.get());
+        }
+        try {
+            Files.deleteIfExists(checkpointFile);
+        } catch (IOException e) {
+            log.warn("Cannot delete import checkpoint {}", checkpointFile, e);
+        }
+
+        ImportSummary summary = new ImportSummary(counters.rows, counters.imported, counters.rejected,
+            checkpoint.lineNumber(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("{}", summary);
+        return summary;
+    }
+
+    private void read(Path input, ImportCheckpoint checkpoint, BlockingQueue<RawChunk> rawChunks,
+                      Semaphore chunksInFlight) throws IOException, InterruptedException {
+        try (ReadableByteChannel channel = openAt(input, checkpoint.offset())) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            long offset = checkpoint.offset();
+            long lineNumber = checkpoint.lineNumber();
+            long sequence = 0;
+            List<String> lines = new ArrayList<>(chunkSize);
+
+            while (channel.read(buffer) != -1) {
+                byte[] bytes = buffer.array();
+                int from = 0;
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+                    line = append(line, lineLength, bytes, from, i - from);
+                    lineLength += i - from;
+                    lines.add(decode(line, lineLength));
+                    lineLength = 0;
+                    lineNumber++;
+                    from = i + 1;
+                    if (lines.size() == chunkSize) {
+                        chunksInFlight.acquire();
+                        rawChunks.put(new RawChunk(sequence++, lineNumber - lines.size() + 1, lines, offset + from));
+                        lines = new ArrayList<>(chunkSize);
+                    }
+                }
+                line = append(line, lineLength, bytes, from, buffer.position() - from);
+                lineLength += buffer.position() - from;
+                offset += buffer.position();
+                buffer.clear();
+            }
+            if (lineLength > 0) {
+                lines.add(decode(line, lineLength));
+                lineNumber++;
+            }
+            if (!lines.isEmpty()) {
+                chunksInFlight.acquire();
+                rawChunks.put(new RawChunk(sequence, lineNumber - lines.size() + 1, lines, offset));
+            }
+        }
+    }
+
+    private void parse(UserFileFormat format, CsvColumns columns, BlockingQueue<RawChunk> rawChunks,
+                       BlockingQueue<ParsedChunk> parsedChunks) throws InterruptedException {
+        RawChunk chunk;
+        while ((chunk = rawChunks.take()) != END_OF_INPUT) {
+            List<Row> rows = new ArrayList<>(chunk.lines().size());
+            List<Reject> rejects = new ArrayList<>();
+            for (int i = 0; i < chunk.lines().size(); i++) {
+                String line = chunk.lines().get(i);
+                long lineNumber = chunk.firstLineNumber() + i;
+                if (line.isBlank() || (lineNumber == 1 && columns.header())) {
+                    continue;
+                }
+                try {
+                    User user = toUser(format, columns, line);
+                    UserService.validateData(user.getName(), user.getEmail());
+                    rows.add(new Row(lineNumber, line, user));
+                } catch (RuntimeException e) {
+                    rejects.add(new Reject(lineNumber, e.getMessage(), line));
+                }
+            }
+            parsedChunks.put(new ParsedChunk(chunk.sequence(), rows, rejects, chunk.endOffset(),
+                chunk.firstLineNumber() + chunk.lines().size() - 1));
+        }
+    }
+
+    private void write(BlockingQueue<ParsedChunk> parsedChunks, Semaphore chunksInFlight, BufferedWriter rejects,
+                       Path checkpointFile, Counters counters) throws IOException, InterruptedException {
+        Map<Long, ParsedChunk> outOfOrder = new HashMap<>();
+        long nextSequence = 0;
+        int finishedParsers = 0;
+        while (finishedParsers < parseThreads) {
+            ParsedChunk chunk = parsedChunks.take();
+            if (chunk == END_OF_PARSING) {
+                finishedParsers++;
+                continue;
+            }
+            outOfOrder.put(chunk.sequence(), chunk);
+            while ((chunk = outOfOrder.remove(nextSequence)) != null) {
+                commit(chunk, rejects, counters);
+                new ImportCheckpoint(chunk.endOffset(), chunk.endLineNumber()).store(checkpointFile);
+                chunksInFlight.release();
+                nextSequence++;
+            }
+        }
+    }
+
+    private void commit(ParsedChunk chunk, BufferedWriter rejects, Counters counters) throws IOException {
+        List<Reject> rejected = new ArrayList<>(chunk.rejects());
+        List<User> users = new ArrayList<>(chunk.rows().size());
+        Map<User, Row> rowsByUser = new IdentityHashMap<>();
+        Set<String> emails = new HashSet<>();
+        for (Row row : chunk.rows()) {
+            if (emails.add(row.user().getEmail())) {
+                users.add(row.user());
+                rowsByUser.put(row.user(), row);
+            } else {
+                rejected.add(new Reject(row.lineNumber(), DUPLICATE_EMAIL, row.line()));
+            }
+        }
+
+        if (!users.isEmpty()) {
+            BatchSaveResult result = userService.saveAll(users);
+            counters.imported += result.savedIds().size();
+            // A failed batch is rolled back as a whole, so its rows are retried one by one to isolate the bad ones
+            for (BatchSaveResult.BatchFailure failure : result.failures()) {
+                for (User user : failure.users()) {
+                    Row row = rowsByUser.get(user);
+                    try {
+                        userService.saveUser(user.getName(), user.getEmail());
+                        counters.imported++;
+                    } catch (AppException e) {
+                        rejected.add(new Reject(row.lineNumber(), isDuplicate(e) ? DUPLICATE_EMAIL : e.getMessage(), row.line()));
+                    }
+                }
+            }
+        }
+
+        rejected.sort(Comparator.comparingLong(Reject::lineNumber));
+        for (Reject reject : rejected) {
+            rejects.write(reject.lineNumber() + "\t" + reject.reason() + "\t" + reject.line());
+            rejects.newLine();
+        }
+        rejects.flush();
+        counters.rows += chunk.rows().size() + chunk.rejects().size();
+        counters.rejected += rejected.size();
+    }
+
+    private static BufferedWriter openRejects(Path input, ImportCheckpoint checkpoint) throws IOException {
+        StandardOpenOption mode = checkpoint.offset() > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        return Files.newBufferedWriter(rejectsFile(input), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode);
+    }
+
+    private static User toUser(UserFileFormat format, CsvColumns columns, String line) {
+        User user = new User();
+        if (format == UserFileFormat.CSV) {
+            List<String> fields = UserRecordParser.parseCsv(line);
+            if (fields.size() != columns.count()) {
+                throw new AppException(String.format("Expected %d fields but found %d", columns.count(), fields.size()));
+            }
+            user.setName(fields.get(columns.name()));
+            user.setEmail(fields.get(columns.email()));
+        } else {
+            Map<String, String> fields = UserRecordParser.parseJsonObject(line);
+            user.setName(fields.get("name"));
+            user.setEmail(fields.get("email"));
+        }
+        return user;
+    }
+
+    // A header names the columns, so exported files with id and created_at can be imported as well
+    private static CsvColumns readCsvColumns(Path input) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(input), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null) {
+                return DEFAULT_COLUMNS;
+            }
+            List<String> fields = UserRecordParser.parseCsv(line).stream().map(field -> field.toLowerCase(Locale.ROOT)).toList();
+            if (!fields.contains("name") || !fields.contains("email")) {
+                return DEFAULT_COLUMNS;
+            }
+            return new CsvColumns(true, fields.size(), fields.indexOf("name"), fields.indexOf("email"));
+        } catch (AppException e) {
+            return DEFAULT_COLUMNS;
+        }
+    }
+
+    private static InputStream open(Path input) throws IOException {
+        InputStream in = Files.newInputStream(input);
+        if (!UserFileFormat.isCompressed(input)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, READ_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Offsets count uncompressed bytes, a compressed file is read again up to the checkpoint
+    private static ReadableByteChannel openAt(Path input, long offset) throws IOException {
+        if (!UserFileFormat.isCompressed(input)) {
+            return FileChannel.open(input, StandardOpenOption.READ).position(offset);
+        }
+        InputStream in = open(input);
+        try {
+            in.skipNBytes(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return Channels.newChannel(in);
+    }
+
+    private static boolean isDuplicate(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] append(byte[] line, int lineLength, byte[] bytes, int from, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(bytes, from, line, lineLength, length);
+        return line;
+    }
+
+    private static String decode(byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static void runStage(AtomicReference<Throwable> failure, Stage stage, Runnable onExit) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            onExit.run();
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        // The queue may be full when the writer has already stopped, in which case nobody waits for the marker
+        if (!Thread.currentThread().isInterrupted()) {
+            try {
+                queue.put(element);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static final class Counters {
+        long rows;
+        long imported;
+        long rejected;
+    }
+
+    private record RawChunk(long sequence, long firstLineNumber, List<String> lines, long endOffset) {
+    }
+
+    private record Row(long lineNumber, String line, User user) {
+    }
+
+    private record CsvColumns(boolean header, int count, int name, int email) {
+    }
+
+    private record Reject(long lineNumber, String reason, String line) {
+    }
+
+    private record ParsedChunk(long sequence, List<Row> rows, List<Reject> rejects, long endOffset, long endLineNumber) {
+    }
+
+}
@@ -0,0 +1,83 @@
+package ru.aston.intensive.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OperationMetrics {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String name;
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final Map<Class<?>, LongAdder> errorsByCause = new ConcurrentHashMap<>();
+    private Histogram interval;
+    private long lastSnapshotNanos = System.nanoTime();
+    private long lastSnapshotCalls;
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public long begin() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void success(long startNanos) {
+        record(startNanos);
+    }
+
+    public void failure(long startNanos, Throwable error) {
+        record(startNanos);
+        errors.increment();
+        errorsByCause.computeIfAbsent(rootCause(error).getClass(), cause -> new LongAdder()).increment();
+    }
+
+    public synchronized OperationSnapshot snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+
+        long now = System.nanoTime();
+        long callCount = calls.sum();
+        double elapsedSeconds = (double) (now - lastSnapshotNanos) / TimeUnit.SECONDS.toNanos(1);
+        double throughput = elapsedSeconds > 0 ? (callCount - lastSnapshotCalls) / elapsedSeconds : 0;
+        lastSnapshotNanos = now;
+        lastSnapshotCalls = callCount;
+
+        Map<String, Long> causes = new TreeMap<>();
+        errorsByCause.forEach((cause, count) -> causes.put(cause.getSimpleName(), count.sum()));
+
+        return new OperationSnapshot(name, callCount, errors.sum(), causes, inFlight.sum(), throughput,
+            toMicros(total.getValueAtPercentile(50)), toMicros(total.getValueAtPercentile(99)),
+            toMicros(total.getValueAtPercentile(99.9)), toMicros(total.getMaxValue()));
+    }
+
+    private void record(long startNanos) {
+        recorder.recordValue(Math.min(System.nanoTime() - startNanos, HIGHEST_TRACKABLE_NANOS));
+        calls.increment();
+        inFlight.decrement();
+    }
+
+    private static Throwable rootCause(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+}
@@ -0,0 +1,17 @@
+package ru.aston.intensive.metrics;
+
+import java.util.Map;
+
+public record OperationSnapshot(String operation, long calls, long errors, Map<String, Long> errorsByCause,
+                                long inFlight, double throughputPerSecond, double p50Micros, double p99Micros,
+                                double p999Micros, double maxMicros) {
+
+    @Override
+    public String toString() {
+        return String.format("%s: calls=%d, errors=%d %s, inFlight=%d, throughput=%.1f/s, "
+                + "p50=%.1fus, p99=%.1fus, p999=%.1fus, max=%.1fus",
+            operation, calls, errors, errorsByCause, inFlight, throughputPerSecond,
+            p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+
+}
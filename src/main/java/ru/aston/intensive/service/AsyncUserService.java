@@ -0,0 +1,177 @@
+package ru.aston.intensive.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.dao.BatchSaveResult;
+import ru.aston.intensive.dao.BatchUpdateResult;
+import ru.aston.intensive.dao.BatchUpsertResult;
+import ru.aston.intensive.dao.SessionCancellation;
+import ru.aston.intensive.dao.UserLookupResult;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class AsyncUserService implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncUserService.class);
+
+    private final UserService userService;
+    private final Semaphore permits;
+    private final Duration acquireTimeout;
+    private final Duration operationTimeout;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public AsyncUserService(UserService userService, int maxConcurrency, Duration acquireTimeout, Duration operationTimeout) {
+        if (maxConcurrency < 1) {
+            throw new AppException(String.format("Invalid concurrency limit: %s", maxConcurrency));
+        }
+        this.userService = userService;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.acquireTimeout = acquireTimeout;
+        this.operationTimeout = operationTimeout;
+    }
+
+    public CompletableFuture<User> getUserById(Long userId) {
+        return submit(() -> userService.getUserById(userId));
+    }
+
+    public CompletableFuture<Optional<User>> findUserById(Long userId) {
+        return submit(() -> userService.findUserById(userId));
+    }
+
+    public CompletableFuture<UserLookupResult> getUsersByIds(Collection<Long> userIds) {
+        return submit(() -> userService.getUsersByIds(userIds));
+    }
+
+    public CompletableFuture<User> getUserByEmail(String email) {
+        return submit(() -> userService.getUserByEmail(email));
+    }
+
+    public CompletableFuture<Boolean> isEmailTaken(String email) {
+        return submit(() -> userService.isEmailTaken(email));
+    }
+
+    public CompletableFuture<List<User>> searchUsers(String query, int limit) {
+        return submit(() -> userService.searchUsers(query, limit));
+    }
+
+    public CompletableFuture<Long> saveUser(String name, String email) {
+        return submit(() -> userService.saveUser(name, email));
+    }
+
+    public CompletableFuture<BatchSaveResult> saveAll(Collection<User> users) {
+        return submit(() -> userService.saveAll(users));
+    }
+
+    public CompletableFuture<BatchUpsertResult> upsertAll(Collection<User> users) {
+        return submit(() -> userService.upsertAll(users));
+    }
+
+    public CompletableFuture<Void> updateUser(Long userId, String name, String email) {
+        return submit(() -> {
+            userService.updateUser(userId, name, email);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> updateUserIfExists(Long userId, String name, String email) {
+        return submit(() -> userService.updateUserIfExists(userId, name, email));
+    }
+
+    public CompletableFuture<Void> updateUser(Long userId, Long expectedVersion, String name, String email) {
+        return submit(() -> {
+            userService.updateUser(userId, expectedVersion, name, email);
+            return null;
+        });
+    }
+
+    public CompletableFuture<User> modifyUser(Long userId, Consumer<User> modification) {
+        return submit(() -> userService.modifyUser(userId, modification));
+    }
+
+    public CompletableFuture<BatchUpdateResult> updateAll(Collection<User> users) {
+        return submit(() -> userService.updateAll(users));
+    }
+
+    public CompletableFuture<BatchUpdateResult> deleteAll(Collection<Long> userIds) {
+        return submit(() -> userService.deleteAll(userIds));
+    }
+
+    public CompletableFuture<Void> deleteUserById(Long userId) {
+        return submit(() -> {
+            userService.deleteUserById(userId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> deleteUserIfExists(Long userId) {
+        return submit(() -> userService.deleteUserIfExists(userId));
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        if (!acquirePermit()) {
+            return CompletableFuture.failedFuture(new AppException("Too many concurrent user operations"));
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        SessionCancellation cancellation = new SessionCancellation();
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    result.complete(cancellation.run(operation));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return CompletableFuture.failedFuture(new AppException("User operations are shut down", e));
+        }
+
+        result.whenComplete((value, error) -> {
+            if (error instanceof CancellationException || error instanceof TimeoutException) {
+                if (claimed.compareAndSet(false, true)) {
+                    permits.release();
+                } else {
+                    log.debug("Cancelling running user operation: {}", error.toString());
+                    cancellation.cancel();
+                    task.cancel(true);
+                }
+            }
+        });
+        return operationTimeout == null ? result : result.orTimeout(operationTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private boolean acquirePermit() {
+        try {
+            return permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
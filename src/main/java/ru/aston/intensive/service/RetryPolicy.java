@@ -0,0 +1,24 @@
+package ru.aston.intensive.service;
+
+import ru.aston.intensive.exception.AppException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+public record RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, double multiplier) {
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, Duration.ofMillis(10), Duration.ofMillis(500), 2.0);
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 1.0);
+
+    public RetryPolicy {
+        if (maxAttempts < 1 || initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0 || multiplier < 1.0) {
+            throw new AppException(String.format("Invalid retry policy: maxAttempts=%s, initialBackoff=%s, maxBackoff=%s, multiplier=%s",
+                maxAttempts, initialBackoff, maxBackoff, multiplier));
+        }
+    }
+
+    public Duration backoff(int failedAttempts) {
+        double ceiling = Math.min(maxBackoff.toNanos(), initialBackoff.toNanos() * Math.pow(multiplier, failedAttempts - 1));
+        return Duration.ofNanos((long) (ThreadLocalRandom.current().nextDouble() * ceiling));
+    }
+
+}
@@ -1,21 +1,78 @@
 package ru.aston.intensive.service;
 
+import ru.aston.intensive.dao.BatchSaveResult;
+import ru.aston.intensive.dao.BatchUpdateResult;
+import ru.aston.intensive.dao.BatchUpsertResult;
+import ru.aston.intensive.dao.UnitOfWork;
 import ru.aston.intensive.dao.UserDAO;
+import ru.aston.intensive.dao.UserLookupResult;
 import ru.aston.intensive.entity.User;
 import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.OptimisticConflictException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class UserService {
 
     public UserDAO dao;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhaustedRetries = new LongAdder();
 
     public UserService(UserDAO dao) {
         this.dao = dao;
     }
 
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public <T> T inTransaction(Function<UserService, T> work) {
+        return inTransaction(UnitOfWork.Propagation.REQUIRED, false, work);
+    }
+
+    public <T> T inReadOnlyTransaction(Function<UserService, T> work) {
+        return inTransaction(UnitOfWork.Propagation.REQUIRED, true, work);
+    }
+
+    public <T> T inTransaction(UnitOfWork.Propagation propagation, boolean readOnly, Function<UserService, T> work) {
+        return UnitOfWork.run(propagation, readOnly, () -> work.apply(this));
+    }
+
     public User getUserById(Long userId) {
         return dao.findById(userId);
     }
 
+    public Optional<User> findUserById(Long userId) {
+        return dao.findOptionalById(userId);
+    }
+
+    public UserLookupResult getUsersByIds(Collection<Long> userIds) {
+        return dao.findByIds(userIds);
+    }
+
+    public User getUserByEmail(String email) {
+        return dao.findByEmail(email);
+    }
+
+    public boolean isEmailTaken(String email) {
+        return dao.existsByEmail(email);
+    }
+
+    public List<User> searchUsers(String query, int limit) {
+        return dao.search(query, limit);
+    }
+
     public Long saveUser(String name, String email) {
         validateData(name, email);
 
@@ -26,6 +83,18 @@ public class UserService {
         return dao.save(user);
     }
 
+    public BatchSaveResult saveAll(Collection<User> users) {
+        users.forEach(user -> validateData(user.getName(), user.getEmail()));
+
+        return dao.saveAll(users);
+    }
+
+    public BatchUpsertResult upsertAll(Collection<User> users) {
+        users.forEach(user -> validateData(user.getName(), user.getEmail()));
+
+        return dao.upsertAll(users);
+    }
+
     public void updateUser(Long userId, String name, String email) {
         validateData(name, email);
 
@@ -37,11 +106,102 @@ public class UserService {
         dao.update(user);
     }
 
+    public int updateUserIfExists(Long userId, String name, String email) {
+        validateData(name, email);
+
+        User user = new User();
+        user.setId(userId);
+        user.setName(name);
+        user.setEmail(email);
+
+        return dao.updateIfPresent(user);
+    }
+
+    public void updateUser(Long userId, Long expectedVersion, String name, String email) {
+        validateData(name, email);
+
+        User user = new User();
+        user.setId(userId);
+        user.setName(name);
+        user.setEmail(email);
+        user.setVersion(expectedVersion);
+
+        try {
+            dao.update(user);
+        } catch (OptimisticConflictException e) {
+            conflicts.increment();
+            throw e;
+        }
+    }
+
+    public User modifyUser(Long userId, Consumer<User> modification) {
+        RetryPolicy policy = retryPolicy;
+        for (int attempt = 1; ; attempt++) {
+            User current = dao.findById(userId);
+            User user = new User(current.getId(), current.getName(), current.getEmail(), current.getCreatedAt(),
+                current.getVersion(), current.getUpdatedAt());
+            modification.accept(user);
+            validateData(user.getName(), user.getEmail());
+            try {
+                dao.update(user);
+                return user;
+            } catch (OptimisticConflictException e) {
+                conflicts.increment();
+                if (attempt >= policy.maxAttempts()) {
+                    exhaustedRetries.increment();
+                    throw e;
+                }
+                retries.increment();
+                pause(policy.backoff(attempt));
+            }
+        }
+    }
+
+    public BatchUpdateResult updateAll(Collection<User> users) {
+        users.forEach(user -> validateData(user.getName(), user.getEmail()));
+
+        return dao.updateAll(users);
+    }
+
     public void deleteUserById(Long userId) {
         dao.delete(userId);
     }
 
-    private static void validateData(String name, String email) {
+    public int deleteUserIfExists(Long userId) {
+        return dao.deleteIfPresent(userId);
+    }
+
+    public BatchUpdateResult deleteAll(Collection<Long> userIds) {
+        return dao.deleteAll(userIds);
+    }
+
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getExhaustedRetries() {
+        return exhaustedRetries.sum();
+    }
+
+    public String formatConflictStatistics() {
+        return String.format("Optimistic locking: conflicts=%d, retries=%d, gave up=%d",
+            getConflicts(), getRetries(), getExhaustedRetries());
+    }
+
+    private static void pause(Duration backoff) {
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    public static void validateData(String name, String email) {
         if (name == null || name.isEmpty() || email == null || email.isEmpty()) {
             throw new AppException(String.format("Invalid user name=%s, email=%s", name, email));
         }
@@ -5,32 +5,209 @@ import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.JdbcSettings;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aston.intensive.dao.UserDAOHibernateImpl;
 import ru.aston.intensive.entity.User;
+import ru.aston.intensive.entity.UserTombstone;
 import ru.aston.intensive.exception.AppException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 public class HibernateUtil {
 
-    private static final SessionFactory sessionFactory = buildSessionFactory();
+    private static final Logger log = LoggerFactory.getLogger(HibernateUtil.class);
+    private static final String HBM2DDL_AUTO = "hibernate.hbm2ddl.auto";
+    private static final String REPLICA_URL_ENV = "REPLICA_DB_URL";
+    private static final String REPLICA_USER_ENV = "REPLICA_DB_USER";
+    private static final String REPLICA_PASSWORD_ENV = "REPLICA_DB_PASSWORD";
+    private static final String SHARD_URLS_ENV = "SHARD_DB_URLS";
+
+    private static volatile CompletableFuture<SessionFactory> bootstrap;
+    private static volatile StartupTimings startupTimings;
+    private static SessionFactory replicaSessionFactory;
+    private static List<SessionFactory> shardSessionFactories;
+
+    public static synchronized CompletableFuture<SessionFactory> startBootstrap() {
+        if (bootstrap == null) {
+            bootstrap = CompletableFuture.supplyAsync(HibernateUtil::buildSessionFactory,
+                task -> Thread.ofPlatform().name("hibernate-bootstrap").daemon(true).start(task));
+        }
+        return bootstrap;
+    }
 
     private static SessionFactory buildSessionFactory() {
         try {
-            StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
-                .configure("hibernate.cfg.xml")
-                .build();
+            long start = System.nanoTime();
+            StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+                .configure("hibernate.cfg.xml");
+            boolean validateSchema = "validate".equals(String.valueOf(registryBuilder.getSettings().get(HBM2DDL_AUTO)));
+            if (validateSchema) {
+                registryBuilder.applySetting(HBM2DDL_AUTO, "none");
+            }
+            StandardServiceRegistry registry = registryBuilder.build();
+            long registryDone = System.nanoTime();
 
             Metadata metadata = new MetadataSources(registry)
                 .addAnnotatedClass(User.class)
+                .addAnnotatedClass(UserTombstone.class)
                 .getMetadataBuilder()
                 .build();
+            long metadataDone = System.nanoTime();
 
-            return metadata.getSessionFactoryBuilder().build();
+            SessionFactory sessionFactory = metadata.getSessionFactoryBuilder().build();
+            long sessionFactoryDone = System.nanoTime();
+
+            if (validateSchema) {
+                try {
+                    sessionFactory.getSchemaManager().validateMappedObjects();
+                } catch (RuntimeException e) {
+                    sessionFactory.close();
+                    throw e;
+                }
+            }
+            long validationDone = System.nanoTime();
+
+            startupTimings = new StartupTimings(toMillis(registryDone - start), toMillis(metadataDone - registryDone),
+                toMillis(sessionFactoryDone - metadataDone), toMillis(validationDone - sessionFactoryDone),
+                PoolMetrics.of(sessionFactory).getPoolStartMillis());
+            log.info("{}", startupTimings);
+            return sessionFactory;
         } catch (Exception ex) {
             throw new AppException("Initial SessionFactory creation failed.", ex);
         }
     }
 
     public static SessionFactory getSessionFactory() {
-        return sessionFactory;
+        try {
+            return startBootstrap().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof AppException appException) {
+                throw appException;
+            }
+            throw new AppException("Initial SessionFactory creation failed.", e.getCause());
+        }
+    }
+
+    public static boolean isReplicaConfigured() {
+        return System.getenv(REPLICA_URL_ENV) != null;
+    }
+
+    // Writes never invalidate a replica cache, so the replica has none
+    public static synchronized SessionFactory getReplicaSessionFactory() {
+        if (replicaSessionFactory == null) {
+            if (!isReplicaConfigured()) {
+                throw new AppException(String.format("Replica is not configured, set %s", REPLICA_URL_ENV));
+            }
+            try {
+                replicaSessionFactory = buildSecondarySessionFactory(System.getenv(REPLICA_URL_ENV),
+                    System.getenv(REPLICA_USER_ENV), System.getenv(REPLICA_PASSWORD_ENV), Map.of(
+                        HBM2DDL_AUTO, "none",
+                        "hibernate.cache.use_second_level_cache", "false",
+                        "hibernate.cache.use_query_cache", "false",
+                        "hibernate.hikari.poolName", "user-service-replica",
+                        "hibernate.hikari.readOnly", "true"));
+            } catch (Exception ex) {
+                throw new AppException("Replica SessionFactory creation failed.", ex);
+            }
+        }
+        return replicaSessionFactory;
+    }
+
+    public static boolean isShardingConfigured() {
+        return System.getenv(SHARD_URLS_ENV) != null;
+    }
+
+    // The order of the urls defines the shard indexes
+    public static synchronized List<SessionFactory> getShardSessionFactories() {
+        if (shardSessionFactories == null) {
+            if (!isShardingConfigured()) {
+                throw new AppException(String.format("Sharding is not configured, set %s", SHARD_URLS_ENV));
+            }
+            List<SessionFactory> sessionFactories = new ArrayList<>();
+            try {
+                String[] urls = System.getenv(SHARD_URLS_ENV).split(",");
+                for (int shard = 0; shard < urls.length; shard++) {
+                    // Session factories share one JCache manager, the prefix keeps the shards' cached users apart
+                    sessionFactories.add(buildSecondarySessionFactory(urls[shard].trim(), null, null, Map.of(
+                        "hibernate.hikari.poolName", "user-service-shard-" + shard,
+                        "hibernate.cache.region_prefix", "shard-" + shard)));
+                }
+            } catch (Exception ex) {
+                sessionFactories.forEach(SessionFactory::close);
+                throw new AppException("Shard SessionFactory creation failed.", ex);
+            }
+            shardSessionFactories = List.copyOf(sessionFactories);
+        }
+        return shardSessionFactories;
+    }
+
+    private static SessionFactory buildSecondarySessionFactory(String url, String username, String password,
+                                                               Map<String, String> settings) {
+        StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+            .configure("hibernate.cfg.xml")
+            .applySetting(JdbcSettings.JAKARTA_JDBC_URL, url);
+        if (username != null) {
+            registryBuilder.applySetting(JdbcSettings.JAKARTA_JDBC_USER, username);
+        }
+        if (password != null) {
+            registryBuilder.applySetting(JdbcSettings.JAKARTA_JDBC_PASSWORD, password);
+        }
+        settings.forEach(registryBuilder::applySetting);
+        return new MetadataSources(registryBuilder.build())
+            .addAnnotatedClass(User.class)
+            .addAnnotatedClass(UserTombstone.class)
+            .getMetadataBuilder()
+            .build()
+            .getSessionFactoryBuilder()
+            .build();
+    }
+
+    public static StartupTimings getStartupTimings() {
+        return startupTimings;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public static Statistics getStatistics() {
+        return getSessionFactory().getStatistics();
+    }
+
+    public static String formatCacheStatistics(Statistics statistics) {
+        CacheRegionStatistics users = statistics.getDomainDataRegionStatistics(User.CACHE_REGION);
+        CacheRegionStatistics lookups = statistics.getQueryRegionStatistics(UserDAOHibernateImpl.LOOKUP_CACHE_REGION);
+        return String.format("Second-level cache: %s, %s, query cache hits=%d, misses=%d, puts=%d",
+            formatRegion(users), formatRegion(lookups), statistics.getQueryCacheHitCount(),
+            statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount());
+    }
+
+    private static String formatRegion(CacheRegionStatistics region) {
+        if (region == null) {
+            return "region not in use";
+        }
+        return String.format("region %s hits=%d, misses=%d, puts=%d, size=%d", region.getRegionName(),
+            region.getHitCount(), region.getMissCount(), region.getPutCount(), region.getElementCountInMemory());
+    }
+
+    public static String formatStatistics(Statistics statistics) {
+        return String.format("Hibernate: sessions opened=%d, closed=%d, transactions=%d, connections=%d, "
+                + "queries=%d, slowest query=%dms (%s), entities loaded=%d, inserted=%d, updated=%d, deleted=%d, "
+                + "flushes=%d, second-level cache hits=%d, misses=%d",
+            statistics.getSessionOpenCount(), statistics.getSessionCloseCount(), statistics.getTransactionCount(),
+            statistics.getConnectCount(), statistics.getQueryExecutionCount(), statistics.getQueryExecutionMaxTime(),
+            statistics.getQueryExecutionMaxTimeQueryString(), statistics.getEntityLoadCount(),
+            statistics.getEntityInsertCount(), statistics.getEntityUpdateCount(), statistics.getEntityDeleteCount(),
+            statistics.getFlushCount(), statistics.getSecondLevelCacheHitCount(),
+            statistics.getSecondLevelCacheMissCount());
     }
 
 }
@@ -0,0 +1,101 @@
+package ru.aston.intensive.utils;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.JdbcSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+import java.io.Serial;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+public class HikariConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+    public static final String HIKARI_PREFIX = "hibernate.hikari.";
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final transient PoolMetrics metrics = new PoolMetrics();
+    private transient HikariDataSource dataSource;
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void configure(Map<String, Object> settings) {
+        Properties properties = new Properties();
+        settings.forEach((key, value) -> {
+            if (key.startsWith(HIKARI_PREFIX) && value != null) {
+                properties.setProperty(key.substring(HIKARI_PREFIX.length()), value.toString());
+            }
+        });
+
+        HikariConfig config = new HikariConfig(properties);
+        config.setJdbcUrl(getSetting(settings, JdbcSettings.JAKARTA_JDBC_URL, JdbcSettings.URL));
+        config.setUsername(getSetting(settings, JdbcSettings.JAKARTA_JDBC_USER, JdbcSettings.USER));
+        config.setPassword(getSetting(settings, JdbcSettings.JAKARTA_JDBC_PASSWORD, JdbcSettings.PASS));
+        String driverClass = getSetting(settings, JdbcSettings.JAKARTA_JDBC_DRIVER, JdbcSettings.DRIVER);
+        if (driverClass != null) {
+            config.setDriverClassName(driverClass);
+        }
+        config.setAutoCommit(ConfigurationHelper.getBoolean(JdbcSettings.AUTOCOMMIT, settings));
+        config.setMetricsTrackerFactory(metrics);
+
+        long start = System.nanoTime();
+        dataSource = new HikariDataSource(config);
+        metrics.recordPoolStartNanos(System.nanoTime() - start);
+    }
+
+    private static String getSetting(Map<String, Object> settings, String name, String legacyName) {
+        String value = ConfigurationHelper.getString(name, settings);
+        return value != null ? value : ConfigurationHelper.getString(legacyName, settings);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class<?> unwrapType) {
+        return unwrapType.isInstance(this) || unwrapType.isAssignableFrom(HikariDataSource.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this)) {
+            return (T) this;
+        }
+        if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+            return (T) dataSource;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+}
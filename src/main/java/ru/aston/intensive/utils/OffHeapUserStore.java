@@ -0,0 +1,401 @@
+package ru.aston.intensive.utils;
+
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+public class OffHeapUserStore {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    // id, version, createdAt, updatedAt, name length, email length
+    private static final int HEADER_SIZE = 4 * Long.BYTES + 2 * Integer.BYTES;
+    private static final long ABSENT = Long.MIN_VALUE;
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private final int segmentSize;
+    // Readers take one snapshot, so they never look up old addresses in compacted segments
+    private volatile Layout layout;
+    private int writeOffset;
+    private volatile int size;
+    private long garbageBytes;
+    private long compactions;
+
+    public OffHeapUserStore(int expectedUsers) {
+        this(expectedUsers, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public OffHeapUserStore(int expectedUsers, int segmentSize) {
+        if (expectedUsers < 0 || segmentSize < HEADER_SIZE) {
+            throw new AppException(String.format("Invalid expected users=%s, segment size=%s", expectedUsers, segmentSize));
+        }
+        this.segmentSize = segmentSize;
+        this.layout = new Layout(expectedUsers);
+    }
+
+    public User get(long id) {
+        Layout current = layout;
+        long address = current.byId.get(id, candidate -> true);
+        return address == 0 ? null : read(current, address);
+    }
+
+    public User getByEmail(String email) {
+        Layout current = layout;
+        byte[] emailBytes = email.getBytes(StandardCharsets.UTF_8);
+        long address = current.byEmail.get(emailKey(emailBytes), candidate -> emailEquals(current, candidate, emailBytes));
+        return address == 0 ? null : read(current, address);
+    }
+
+    public boolean containsEmail(String email) {
+        Layout current = layout;
+        byte[] emailBytes = email.getBytes(StandardCharsets.UTF_8);
+        return current.byEmail.get(emailKey(emailBytes), candidate -> emailEquals(current, candidate, emailBytes)) != 0;
+    }
+
+    public synchronized void put(User user) {
+        byte[] name = user.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] email = user.getEmail().getBytes(StandardCharsets.UTF_8);
+        long address = append(user, name, email);
+
+        Layout current = layout;
+        long previous = current.byId.get(user.getId(), candidate -> true);
+        current.byEmail.put(emailKey(email), address, candidate -> false);
+        current.byId.put(user.getId(), address, candidate -> true);
+        if (previous != 0) {
+            current.byEmail.remove(emailKey(readEmail(current, previous)), candidate -> candidate == previous);
+            garbageBytes += recordSize(current, previous);
+            compactIfNeeded();
+        } else {
+            size++;
+        }
+    }
+
+    public synchronized boolean remove(long id) {
+        Layout current = layout;
+        long address = current.byId.get(id, candidate -> true);
+        if (address == 0) {
+            return false;
+        }
+        current.byEmail.remove(emailKey(readEmail(current, address)), candidate -> candidate == address);
+        current.byId.remove(id, candidate -> true);
+        garbageBytes += recordSize(current, address);
+        size--;
+        compactIfNeeded();
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized long getOffHeapBytes() {
+        return (long) layout.segments.length * segmentSize;
+    }
+
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("In-memory users: size=%d, off-heap=%dKB, garbage=%dKB, compactions=%d",
+            size(), getOffHeapBytes() / 1024, getGarbageBytes() / 1024, getCompactions());
+    }
+
+    // Replaced and removed records are only reclaimed by copying the live ones into fresh segments
+    private void compactIfNeeded() {
+        if (garbageBytes < getOffHeapBytes() * COMPACTION_THRESHOLD) {
+            return;
+        }
+        Layout current = layout;
+        OffHeapUserStore compacted = new OffHeapUserStore(size, segmentSize);
+        current.byId.forEach(address -> compacted.copy(current, address));
+        layout = compacted.layout;
+        writeOffset = compacted.writeOffset;
+        garbageBytes = 0;
+        compactions++;
+    }
+
+    private void copy(Layout source, long address) {
+        int recordSize = recordSize(source, address);
+        long copied = allocate(recordSize);
+        Layout current = layout;
+        segment(current, copied).put(offset(copied), segment(source, address), offset(address), recordSize);
+        current.byId.put(segment(source, address).getLong(offset(address)), copied, candidate -> true);
+        current.byEmail.put(emailKey(readEmail(source, address)), copied, candidate -> false);
+    }
+
+    private long append(User user, byte[] name, byte[] email) {
+        int recordSize = HEADER_SIZE + name.length + email.length;
+        if (recordSize > segmentSize) {
+            throw new AppException(String.format("User with id=%s does not fit into a %d byte segment", user.getId(), segmentSize));
+        }
+        long address = allocate(recordSize);
+        ByteBuffer buffer = segment(layout, address);
+        int offset = offset(address);
+        buffer.putLong(offset, user.getId());
+        buffer.putLong(offset + 8, user.getVersion() == null ? ABSENT : user.getVersion());
+        buffer.putLong(offset + 16, user.getCreatedAt() == null ? ABSENT : toEpochMicros(user.getCreatedAt()));
+        buffer.putLong(offset + 24, user.getUpdatedAt() == null ? ABSENT : toEpochMicros(user.getUpdatedAt()));
+        buffer.putInt(offset + 32, name.length);
+        buffer.putInt(offset + 36, email.length);
+        buffer.put(offset + HEADER_SIZE, name);
+        buffer.put(offset + HEADER_SIZE + name.length, email);
+        return address;
+    }
+
+    private long allocate(int recordSize) {
+        ByteBuffer[] segments = layout.segments;
+        if (segments.length == 0 || writeOffset + recordSize > segmentSize) {
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            segments[segments.length - 1] = ByteBuffer.allocateDirect(segmentSize);
+            layout.segments = segments;
+            writeOffset = 0;
+        }
+        int offset = writeOffset;
+        writeOffset += recordSize;
+        // Zero is the empty slot marker of the index
+        return ((long) (segments.length - 1) << 32 | offset) + 1;
+    }
+
+    private static User read(Layout layout, long address) {
+        ByteBuffer buffer = segment(layout, address);
+        int offset = offset(address);
+        long version = buffer.getLong(offset + 8);
+        long createdAt = buffer.getLong(offset + 16);
+        long updatedAt = buffer.getLong(offset + 24);
+        byte[] name = new byte[buffer.getInt(offset + 32)];
+        byte[] email = new byte[buffer.getInt(offset + 36)];
+        buffer.get(offset + HEADER_SIZE, name);
+        buffer.get(offset + HEADER_SIZE + name.length, email);
+        return new User(buffer.getLong(offset), new String(name, StandardCharsets.UTF_8), new String(email, StandardCharsets.UTF_8),
+            createdAt == ABSENT ? null : fromEpochMicros(createdAt), version == ABSENT ? null : version,
+            updatedAt == ABSENT ? null : fromEpochMicros(updatedAt));
+    }
+
+    private static byte[] readEmail(Layout layout, long address) {
+        ByteBuffer buffer = segment(layout, address);
+        int offset = offset(address);
+        byte[] email = new byte[buffer.getInt(offset + 36)];
+        buffer.get(offset + HEADER_SIZE + buffer.getInt(offset + 32), email);
+        return email;
+    }
+
+    private static boolean emailEquals(Layout layout, long address, byte[] email) {
+        ByteBuffer buffer = segment(layout, address);
+        int offset = offset(address);
+        if (buffer.getInt(offset + 36) != email.length) {
+            return false;
+        }
+        int emailOffset = offset + HEADER_SIZE + buffer.getInt(offset + 32);
+        for (int i = 0; i < email.length; i++) {
+            if (buffer.get(emailOffset + i) != email[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int recordSize(Layout layout, long address) {
+        ByteBuffer buffer = segment(layout, address);
+        int offset = offset(address);
+        return HEADER_SIZE + buffer.getInt(offset + 32) + buffer.getInt(offset + 36);
+    }
+
+    private static ByteBuffer segment(Layout layout, long address) {
+        return layout.segments[(int) ((address - 1) >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) (address - 1);
+    }
+
+    private static long emailKey(byte[] email) {
+        // FNV-1a, zero is reserved for empty slots
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : email) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long toEpochMicros(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + dateTime.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromEpochMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1_000,
+            ZoneOffset.UTC);
+    }
+
+    private static final class Layout {
+
+        // Replaced before a new address is indexed, so a reader that finds an address also finds its segment
+        volatile ByteBuffer[] segments = new ByteBuffer[0];
+        final AddressIndex byId;
+        final AddressIndex byEmail;
+
+        Layout(int expectedUsers) {
+            byId = new AddressIndex(expectedUsers);
+            byEmail = new AddressIndex(expectedUsers);
+        }
+
+    }
+
+    // Several entries may share a key, callers tell them apart by address
+    private static final class AddressIndex {
+
+        private volatile Table table;
+        private int usedSlots;
+
+        AddressIndex(int expectedEntries) {
+            table = new Table(capacityFor(expectedEntries));
+        }
+
+        long get(long key, LongPredicate matches) {
+            Table current = table;
+            int mask = current.keys.length() - 1;
+            for (int slot = current.slotOf(key); ; slot = (slot + 1) & mask) {
+                long slotKey = current.keys.get(slot);
+                if (slotKey == 0) {
+                    return 0;
+                }
+                if (slotKey == key) {
+                    long address = current.addresses.get(slot);
+                    if (address != 0 && matches.test(address)) {
+                        return address;
+                    }
+                }
+            }
+        }
+
+        void put(long key, long address, LongPredicate replaces) {
+            if (key == 0) {
+                throw new AppException("Index key must not be zero");
+            }
+            Table current = table;
+            int mask = current.keys.length() - 1;
+            int reusable = -1;
+            int slot = current.slotOf(key);
+            for (; ; slot = (slot + 1) & mask) {
+                long slotKey = current.keys.get(slot);
+                if (slotKey == 0) {
+                    break;
+                }
+                if (slotKey == key) {
+                    long existing = current.addresses.get(slot);
+                    if (existing != 0 && replaces.test(existing)) {
+                        current.addresses.set(slot, address);
+                        return;
+                    }
+                    if (existing == 0 && reusable < 0) {
+                        reusable = slot;
+                    }
+                }
+            }
+            if (reusable >= 0) {
+                current.addresses.set(reusable, address);
+                return;
+            }
+            // The address goes first, so a reader that sees the key also sees where it points
+            current.addresses.set(slot, address);
+            current.keys.set(slot, key);
+            if (++usedSlots > current.keys.length() * 0.6) {
+                rebuild(current);
+            }
+        }
+
+        void forEach(LongConsumer action) {
+            Table current = table;
+            for (int slot = 0; slot < current.addresses.length(); slot++) {
+                long address = current.addresses.get(slot);
+                if (address != 0) {
+                    action.accept(address);
+                }
+            }
+        }
+
+        void remove(long key, LongPredicate matches) {
+            Table current = table;
+            int mask = current.keys.length() - 1;
+            for (int slot = current.slotOf(key); ; slot = (slot + 1) & mask) {
+                long slotKey = current.keys.get(slot);
+                if (slotKey == 0) {
+                    return;
+                }
+                if (slotKey == key) {
+                    long address = current.addresses.get(slot);
+                    if (address != 0 && matches.test(address)) {
+                        current.addresses.set(slot, 0);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void rebuild(Table current) {
+            int live = 0;
+            for (int slot = 0; slot < current.keys.length(); slot++) {
+                if (current.addresses.get(slot) != 0) {
+                    live++;
+                }
+            }
+            Table rebuilt = new Table(capacityFor(live * 2));
+            int mask = rebuilt.keys.length() - 1;
+            for (int slot = 0; slot < current.keys.length(); slot++) {
+                long address = current.addresses.get(slot);
+                if (address == 0) {
+                    continue;
+                }
+                long key = current.keys.get(slot);
+                int target = rebuilt.slotOf(key);
+                while (rebuilt.keys.get(target) != 0) {
+                    target = (target + 1) & mask;
+                }
+                rebuilt.addresses.set(target, address);
+                rebuilt.keys.set(target, key);
+            }
+            usedSlots = live;
+            table = rebuilt;
+        }
+
+        private static int capacityFor(int entries) {
+            long capacity = Long.highestOneBit(Math.max(16, (long) (entries / 0.5)) * 2 - 1);
+            if (capacity > 1 << 30) {
+                throw new AppException(String.format("Too many entries for an in-memory index: %s", entries));
+            }
+            return (int) capacity;
+        }
+
+    }
+
+    private static final class Table {
+
+        final AtomicLongArray keys;
+        final AtomicLongArray addresses;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            addresses = new AtomicLongArray(capacity);
+        }
+
+        int slotOf(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & (keys.length() - 1);
+        }
+
+    }
+
+}
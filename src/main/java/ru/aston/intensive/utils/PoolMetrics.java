@@ -0,0 +1,119 @@
+package ru.aston.intensive.utils;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import ru.aston.intensive.exception.AppException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PoolMetrics implements MetricsTrackerFactory, IMetricsTracker {
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAccumulator maxUsageMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder createdConnections = new LongAdder();
+    private volatile PoolStats poolStats;
+    private volatile long poolStartNanos;
+
+    public static PoolMetrics of(SessionFactory sessionFactory) {
+        ConnectionProvider connectionProvider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .requireService(ConnectionProvider.class);
+        if (!connectionProvider.isUnwrappableAs(HikariConnectionProvider.class)) {
+            throw new AppException("SessionFactory is not configured with a pooled connection provider");
+        }
+        return connectionProvider.unwrap(HikariConnectionProvider.class).getMetrics();
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return this;
+    }
+
+    @Override
+    public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+        createdConnections.increment();
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        acquisitions.increment();
+        acquireNanos.add(elapsedAcquiredNanos);
+        maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+        usageMillis.add(elapsedBorrowedMillis);
+        maxUsageMillis.accumulate(elapsedBorrowedMillis);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        acquireTimeouts.increment();
+    }
+
+    void recordPoolStartNanos(long nanos) {
+        poolStartNanos = nanos;
+    }
+
+    public long getPoolStartMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(poolStartNanos);
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getAcquireTimeouts() {
+        return acquireTimeouts.sum();
+    }
+
+    public double getAverageAcquireMillis() {
+        long count = acquisitions.sum();
+        return count == 0 ? 0 : (double) acquireNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxAcquireMillis() {
+        return (double) maxAcquireNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getMaxUsageMillis() {
+        return maxUsageMillis.get();
+    }
+
+    public long getCreatedConnections() {
+        return createdConnections.sum();
+    }
+
+    public int getActiveConnections() {
+        return poolStats == null ? 0 : poolStats.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return poolStats == null ? 0 : poolStats.getIdleConnections();
+    }
+
+    public int getPendingThreads() {
+        return poolStats == null ? 0 : poolStats.getPendingThreads();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PoolMetrics{active=%d, idle=%d, pending=%d, acquisitions=%d, timeouts=%d, "
+                + "avgAcquireMs=%.3f, maxAcquireMs=%.3f, maxUsageMs=%d, created=%d}",
+            getActiveConnections(), getIdleConnections(), getPendingThreads(), getAcquisitions(),
+            getAcquireTimeouts(), getAverageAcquireMillis(), getMaxAcquireMillis(), getMaxUsageMillis(),
+            getCreatedConnections());
+    }
+
+}
@@ -0,0 +1,18 @@
+package ru.aston.intensive.utils;
+
+public record StartupTimings(long registryMillis, long metadataMillis, long sessionFactoryMillis,
+                             long validationMillis, long poolStartMillis) {
+
+    // The pool starts while the metadata is built, its time is part of the phases, not added to them
+    public long totalMillis() {
+        return registryMillis + metadataMillis + sessionFactoryMillis + validationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Startup: registry=%dms, metadata=%dms, sessionFactory=%dms, validation=%dms, "
+                + "total=%dms, of which poolStart=%dms",
+            registryMillis, metadataMillis, sessionFactoryMillis, validationMillis, totalMillis(), poolStartMillis);
+    }
+
+}
@@ -0,0 +1,124 @@
+package ru.aston.intensive.batch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.dao.BatchSaveResult;
+import ru.aston.intensive.dao.BatchUpdateResult;
+import ru.aston.intensive.dao.UserDAO;
+import ru.aston.intensive.dao.UserLookupResult;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.service.UserService;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BatchRunnerTest {
+
+    @Mock
+    private UserDAO userDAO;
+
+    private ByteArrayOutputStream failures;
+    private BatchRunner batchRunner;
+
+    @BeforeEach
+    void createBatchRunner() {
+        failures = new ByteArrayOutputStream();
+        batchRunner = new BatchRunner(new UserService(userDAO), 10, 1, new PrintStream(failures, true));
+    }
+
+    @Test
+    public void testGroupsConsecutiveCommandsIntoBulkCalls() {
+        when(userDAO.saveAll(anyCollection())).thenReturn(new BatchSaveResult(List.of(1L, 2L), List.of()));
+        when(userDAO.updateAll(anyCollection())).thenReturn(new BatchUpdateResult(1, Set.of()));
+        when(userDAO.deleteAll(anyCollection())).thenReturn(new BatchUpdateResult(1, Set.of()));
+
+        BatchSummary summary = batchRunner.run(input(
+            "create;Ivan;ivan@test.ru",
+            "create;Anna;anna@test.ru",
+            "update;1;Inna;inna@test.ru",
+            "delete;2"));
+
+        assertEquals(4, summary.commands());
+        assertEquals(4, summary.succeeded());
+        assertEquals(0, summary.failed());
+        verify(userDAO, times(1)).saveAll(argThat(users -> users.size() == 2));
+        verify(userDAO, times(1)).updateAll(anyCollection());
+        verify(userDAO, times(1)).deleteAll(List.of(2L));
+    }
+
+    @Test
+    public void testRepeatedDeleteOfSameUserIsNotFound() {
+        when(userDAO.deleteAll(anyCollection())).thenReturn(new BatchUpdateResult(1, Set.of()));
+
+        BatchSummary summary = batchRunner.run(input(
+            "delete;2",
+            "delete;2"));
+
+        assertEquals(1, summary.succeeded());
+        assertEquals(1, summary.failed());
+        assertTrue(failures.toString().contains("line 2: User with id=2 not found"));
+    }
+
+    @Test
+    public void testReportsFailedLines() {
+        when(userDAO.findByIds(List.of(1L, 7L))).thenReturn(new UserLookupResult(Map.of(), Set.of(7L)));
+
+        BatchSummary summary = batchRunner.run(input(
+            "# comment",
+            "get;1",
+            "get;7",
+            "get;abc",
+            "rename;1"));
+
+        assertEquals(4, summary.commands());
+        assertEquals(1, summary.succeeded());
+        assertEquals(3, summary.failed());
+        String report = failures.toString();
+        assertTrue(report.contains("line 3: User with id=7 not found"));
+        assertTrue(report.contains("line 4: Invalid id format"));
+        assertTrue(report.contains("line 5: Unknown command"));
+    }
+
+    @Test
+    public void testInvalidUserDataFailsOnlyItsLine() {
+        when(userDAO.saveAll(anyCollection())).thenReturn(new BatchSaveResult(List.of(1L), List.of()));
+
+        BatchSummary summary = batchRunner.run(input(
+            "create;Ivan;ivan@test.ru",
+            "create;;empty@test.ru"));
+
+        assertEquals(1, summary.succeeded());
+        assertEquals(1, summary.failed());
+        assertTrue(failures.toString().startsWith("line 2: Invalid user"));
+    }
+
+    @Test
+    public void testFailedBulkCallDoesNotCountRejectedLinesTwice() {
+        when(userDAO.updateAll(anyCollection())).thenThrow(new AppException("Batch update failed"));
+
+        BatchSummary summary = batchRunner.run(input(
+            "update;1;Ivan;ivan@test.ru",
+            "update;2;;empty@test.ru"));
+
+        assertEquals(0, summary.succeeded());
+        assertEquals(2, summary.failed());
+        assertTrue(failures.toString().contains("line 1: Batch update failed"));
+        assertFalse(failures.toString().contains("line 2: Batch update failed"));
+    }
+
+    private BufferedReader input(String... lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+}
@@ -0,0 +1,116 @@
+package ru.aston.intensive.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingUserDAOTest {
+
+    @Mock
+    private UserDAO userDAO;
+
+    private CachingUserDAO cachingDao;
+    private User testUserIvan;
+
+    @BeforeEach
+    void createCachingDao() {
+        cachingDao = new CachingUserDAO(userDAO, 100, Duration.ofMinutes(1));
+
+        testUserIvan = new User();
+        testUserIvan.setId(1L);
+        testUserIvan.setName("Ivan");
+        testUserIvan.setEmail("ivan@test.ru");
+    }
+
+    @Test
+    public void testFindByIdLoadsOnce() {
+        when(userDAO.findById(1L)).thenReturn(testUserIvan);
+
+        assertEquals(testUserIvan, cachingDao.findById(1L));
+        assertEquals(testUserIvan, cachingDao.findById(1L));
+
+        verify(userDAO, times(1)).findById(1L);
+        assertEquals(1, cachingDao.getStats().hitCount());
+        assertEquals(1, cachingDao.getStats().missCount());
+    }
+
+    @Test
+    public void testUpdateInvalidatesEntry() {
+        when(userDAO.findById(1L)).thenReturn(testUserIvan);
+        cachingDao.findById(1L);
+
+        cachingDao.update(testUserIvan);
+        cachingDao.findById(1L);
+
+        verify(userDAO, times(2)).findById(1L);
+    }
+
+    @Test
+    public void testDeleteInvalidatesEntryEvenWhenFailed() {
+        when(userDAO.findById(1L)).thenReturn(testUserIvan);
+        doThrow(new AppException("Delete failed")).when(userDAO).delete(1L);
+        cachingDao.findById(1L);
+
+        assertThrows(AppException.class, () -> cachingDao.delete(1L));
+        cachingDao.findById(1L);
+
+        verify(userDAO, times(2)).findById(1L);
+    }
+
+    @Test
+    public void testFindByIdsLoadsOnlyUncachedIds() {
+        when(userDAO.findById(1L)).thenReturn(testUserIvan);
+        when(userDAO.findByIds(Set.of(2L))).thenReturn(new UserLookupResult(Map.of(), Set.of(2L)));
+        cachingDao.findById(1L);
+
+        UserLookupResult result = cachingDao.findByIds(List.of(1L, 2L));
+
+        assertEquals(Map.of(1L, testUserIvan), result.found());
+        assertEquals(Set.of(2L), result.missing());
+    }
+
+    @Test
+    public void testNotFoundIsNotCached() {
+        when(userDAO.findById(5L)).thenThrow(new AppException("User with id=5 not found"));
+
+        assertThrows(AppException.class, () -> cachingDao.findById(5L));
+        assertThrows(AppException.class, () -> cachingDao.findById(5L));
+
+        verify(userDAO, times(2)).findById(5L);
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userDAO.findById(1L)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return testUserIvan;
+        });
+
+        CompletableFuture<User> first = CompletableFuture.supplyAsync(() -> cachingDao.findById(1L));
+        loading.await(5, TimeUnit.SECONDS);
+        CompletableFuture<User> second = CompletableFuture.supplyAsync(() -> cachingDao.findById(1L));
+        release.countDown();
+
+        assertEquals(testUserIvan, first.get(5, TimeUnit.SECONDS));
+        assertEquals(testUserIvan, second.get(5, TimeUnit.SECONDS));
+        verify(userDAO, times(1)).findById(1L);
+    }
+
+}
@@ -0,0 +1,94 @@
+package ru.aston.intensive.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.util.List;
+import java.util.function.Predicate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class EmailFilterUserDAOTest {
+
+    @Mock
+    private UserDAO userDAO;
+
+    private EmailFilterUserDAO filterDao;
+    private User testUserIvan;
+
+    @BeforeEach
+    void createFilterDao() {
+        testUserIvan = new User();
+        testUserIvan.setId(1L);
+        testUserIvan.setName("Ivan");
+        testUserIvan.setEmail("ivan@test.ru");
+
+        when(userDAO.forEachBatch(isNull(), anyInt(), any())).thenAnswer(invocation -> {
+            Predicate<List<User>> consumer = invocation.getArgument(2);
+            consumer.test(List.of(testUserIvan));
+            return testUserIvan.getId();
+        });
+        filterDao = EmailFilterUserDAO.create(userDAO, 1000, 0.01);
+    }
+
+    @Test
+    public void testFreeEmailIsAnsweredWithoutDatabase() {
+        assertFalse(filterDao.existsByEmail("anna@test.ru"));
+
+        verify(userDAO, never()).existsByEmail(anyString());
+        assertEquals(1, filterDao.getFilteredLookups());
+    }
+
+    @Test
+    public void testLoadedEmailIsCheckedInDatabase() {
+        when(userDAO.existsByEmail(testUserIvan.getEmail())).thenReturn(true);
+
+        assertTrue(filterDao.existsByEmail(testUserIvan.getEmail()));
+
+        verify(userDAO, times(1)).existsByEmail(testUserIvan.getEmail());
+    }
+
+    @Test
+    public void testSavedEmailIsCheckedInDatabase() {
+        User anna = new User();
+        anna.setName("Anna");
+        anna.setEmail("anna@test.ru");
+        when(userDAO.existsByEmail(anna.getEmail())).thenReturn(true);
+
+        filterDao.save(anna);
+
+        assertTrue(filterDao.existsByEmail(anna.getEmail()));
+    }
+
+    @Test
+    public void testFindByFreeEmailThrowsWithoutDatabase() {
+        assertThrows(AppException.class, () -> filterDao.findByEmail("anna@test.ru"));
+
+        verify(userDAO, never()).findByEmail(anyString());
+    }
+
+    @Test
+    public void testEmailSavedDuringRebuildIsKept() {
+        User anna = new User();
+        anna.setName("Anna");
+        anna.setEmail("anna@test.ru");
+        when(userDAO.existsByEmail(anna.getEmail())).thenReturn(true);
+        doAnswer(invocation -> {
+            filterDao.save(anna);
+            Predicate<List<User>> consumer = invocation.getArgument(2);
+            consumer.test(List.of(testUserIvan));
+            return testUserIvan.getId();
+        }).when(userDAO).forEachBatch(isNull(), anyInt(), any());
+
+        filterDao.rebuild();
+
+        assertTrue(filterDao.existsByEmail(anna.getEmail()));
+    }
+
+}
@@ -0,0 +1,206 @@
+package ru.aston.intensive.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.OptimisticConflictException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import ru.aston.intensive.utils.OffHeapUserStore;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class InMemoryUserDAOTest {
+
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_456_000);
+
+    @Mock
+    private UserDAO delegate;
+
+    @Test
+    public void testLoadsAllUsersAndServesLookupsWithoutDelegate() {
+        List<User> users = new ArrayList<>();
+        for (long id = 1; id <= 500; id++) {
+            users.add(new User(id, "Пользователь " + id, "user" + id + "@test.ru", CREATED_AT, id, null));
+        }
+        givenStoredUsers(users);
+
+        // Tiny segments and no expected size force several segments and index rebuilds
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 0, 256, false);
+
+        assertEquals(500, inMemoryDao.size());
+        User found = inMemoryDao.findById(321L);
+        assertEquals("Пользователь 321", found.getName());
+        assertEquals("user321@test.ru", found.getEmail());
+        assertEquals(CREATED_AT, found.getCreatedAt());
+        assertEquals(321L, found.getVersion());
+        assertEquals(7L, inMemoryDao.findByEmail("user7@test.ru").getId());
+        assertTrue(inMemoryDao.existsByEmail("user500@test.ru"));
+        assertFalse(inMemoryDao.existsByEmail("user501@test.ru"));
+        assertThrows(UserNotFoundException.class, () -> inMemoryDao.findById(501L));
+
+        UserLookupResult result = inMemoryDao.findByIds(List.of(1L, 2L, 999L));
+        assertEquals(Set.of(1L, 2L), result.found().keySet());
+        assertEquals(Set.of(999L), result.missing());
+        verify(delegate, never()).findById(any());
+        verify(delegate, never()).findByEmail(any());
+    }
+
+    @Test
+    public void testWritesAreAppliedToStore() {
+        givenStoredUsers(List.of(new User(1L, "Ivan", "ivan@test.ru", CREATED_AT, 3L, null)));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 10);
+
+        User petr = new User(null, "Petr", "petr@test.ru", CREATED_AT, null, null);
+        when(delegate.save(petr)).thenAnswer(invocation -> {
+            petr.setId(2L);
+            petr.setVersion(0L);
+            return 2L;
+        });
+        inMemoryDao.save(petr);
+        assertEquals("Petr", inMemoryDao.findByEmail("petr@test.ru").getName());
+
+        // Blind update: the database increments the version by one
+        inMemoryDao.update(new User(1L, "Ivan Ivanov", "ivanov@test.ru", null, null, null));
+        User updated = inMemoryDao.findById(1L);
+        assertEquals("Ivan Ivanov", updated.getName());
+        assertEquals(4L, updated.getVersion());
+        assertEquals(CREATED_AT, updated.getCreatedAt());
+        assertFalse(inMemoryDao.existsByEmail("ivan@test.ru"));
+        assertEquals(1L, inMemoryDao.findByEmail("ivanov@test.ru").getId());
+
+        inMemoryDao.delete(2L);
+        assertThrows(UserNotFoundException.class, () -> inMemoryDao.findById(2L));
+        assertFalse(inMemoryDao.existsByEmail("petr@test.ru"));
+        assertEquals(1, inMemoryDao.size());
+    }
+
+    @Test
+    public void testConflictRefreshesStaleUser() {
+        givenStoredUsers(List.of(new User(1L, "Ivan", "ivan@test.ru", CREATED_AT, 1L, null)));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 10);
+
+        doThrow(new OptimisticConflictException("changed")).when(delegate).update(any());
+        when(delegate.findByIds(List.of(1L)))
+            .thenReturn(new UserLookupResult(Map.of(1L, new User(1L, "Ivan Petrov", "petrov@test.ru", CREATED_AT, 2L, null)), Set.of()));
+
+        assertThrows(OptimisticConflictException.class,
+            () -> inMemoryDao.update(new User(1L, "Ivan", "ivan@mail.ru", CREATED_AT, 1L, null)));
+
+        User refreshed = inMemoryDao.findById(1L);
+        assertEquals("Ivan Petrov", refreshed.getName());
+        assertEquals(2L, refreshed.getVersion());
+        assertEquals(1L, inMemoryDao.getRefreshes());
+    }
+
+    @Test
+    public void testUpdateAllSkipsMissingAndDeleteAllRemoves() {
+        givenStoredUsers(List.of(
+            new User(1L, "Ivan", "ivan@test.ru", CREATED_AT, 0L, null),
+            new User(2L, "Petr", "petr@test.ru", CREATED_AT, 0L, null)));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 10);
+
+        User ivan = new User(1L, "Ivan", "ivan@mail.ru", CREATED_AT, 0L, null);
+        User ghost = new User(3L, "Ghost", "ghost@test.ru", CREATED_AT, 0L, null);
+        when(delegate.updateAll(anyCollection())).thenAnswer(invocation -> {
+            ivan.setVersion(1L);
+            return new BatchUpdateResult(1, Set.of(3L));
+        });
+        when(delegate.findByIds(anyCollection())).thenReturn(new UserLookupResult(Map.of(), Set.of(3L)));
+
+        inMemoryDao.updateAll(List.of(ivan, ghost));
+
+        assertEquals("ivan@mail.ru", inMemoryDao.findById(1L).getEmail());
+        assertEquals(1L, inMemoryDao.findById(1L).getVersion());
+        assertThrows(UserNotFoundException.class, () -> inMemoryDao.findById(3L));
+
+        when(delegate.deleteAll(anyCollection())).thenReturn(new BatchUpdateResult(2, Set.of()));
+        inMemoryDao.deleteAll(List.of(1L, 2L));
+        assertEquals(0, inMemoryDao.size());
+        assertFalse(inMemoryDao.existsByEmail("petr@test.ru"));
+    }
+
+    @Test
+    public void testPrefixIndexServesSearchOffline() {
+        givenStoredUsers(List.of(
+            new User(1L, "Ivan Annenkov", "ivan@test.ru", CREATED_AT, 0L, null),
+            new User(2L, "Ann", "ann@test.ru", CREATED_AT, 0L, null),
+            new User(3L, "Marianna", "maria@test.ru", CREATED_AT, 0L, null),
+            new User(4L, "Annabel Lee", "lee@test.ru", CREATED_AT, 0L, null)));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 10, OffHeapUserStore.DEFAULT_SEGMENT_SIZE, true);
+
+        // Prefix mode: "Marianna" only contains the query in the middle of a word
+        assertEquals(List.of(2L, 4L, 1L), inMemoryDao.search("Ann", 10).stream().map(User::getId).toList());
+        assertEquals(List.of(4L), inMemoryDao.search("lee", 10).stream().map(User::getId).toList());
+
+        inMemoryDao.update(new User(4L, "Lee Annabel", "annabel@test.ru", null, 0L, null));
+        inMemoryDao.delete(2L);
+
+        assertEquals(List.of(4L, 1L), inMemoryDao.search("ann", 10).stream().map(User::getId).toList());
+        assertEquals(List.of(4L), inMemoryDao.search("annabel@", 10).stream().map(User::getId).toList());
+        assertEquals(1, inMemoryDao.search("ann", 1).size());
+        verify(delegate, never()).search(any(), anyInt());
+    }
+
+    @Test
+    public void testUnitOfWorkWritesAreRefreshedAfterItEnds() {
+        givenStoredUsers(List.of(new User(1L, "Ivan", "ivan@test.ru", CREATED_AT, 0L, null)));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 10);
+        User renamed = new User(1L, "Ivan Ivanov", "ivanov@test.ru", CREATED_AT, 0L, null);
+        when(delegate.findById(1L)).thenReturn(renamed);
+        when(delegate.findByIds(List.of(1L)))
+            .thenReturn(new UserLookupResult(Map.of(1L, new User(1L, "Ivan", "ivan@test.ru", CREATED_AT, 0L, null)), Set.of()));
+
+        assertThrows(IllegalStateException.class, () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> {
+            inMemoryDao.update(renamed);
+            // The unit reads its own write from the delegate, the store is left alone until the unit ends
+            assertEquals("Ivan Ivanov", inMemoryDao.findById(1L).getName());
+            throw new IllegalStateException("abort");
+        }));
+
+        verify(delegate).update(renamed);
+        assertEquals("Ivan", inMemoryDao.findById(1L).getName());
+        assertEquals(1L, inMemoryDao.getRefreshes());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUserMovedToAnotherShardIsStoredUnderNewId() {
+        givenStoredUsers(List.of(new User(3L, "Ivan", "ivan@test.ru", CREATED_AT, 2L, null)));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(delegate, 10);
+        User moved = new User(3L, "Ivan", "ivan@shard.ru", CREATED_AT, 2L, null);
+        when(delegate.updateIfPresent(moved)).thenAnswer(invocation -> {
+            moved.setId(7L);
+            moved.setVersion(0L);
+            return 1;
+        });
+
+        assertEquals(1, inMemoryDao.updateIfPresent(moved));
+
+        assertTrue(inMemoryDao.findOptionalById(3L).isEmpty());
+        assertEquals(7L, inMemoryDao.findByEmail("ivan@shard.ru").getId());
+        assertEquals(CREATED_AT, inMemoryDao.findById(7L).getCreatedAt());
+        assertFalse(inMemoryDao.existsByEmail("ivan@test.ru"));
+    }
+
+    private void givenStoredUsers(List<User> users) {
+        when(delegate.forEachBatch(isNull(), anyInt(), any())).thenAnswer(invocation -> {
+            Predicate<List<User>> consumer = invocation.getArgument(2);
+            int batchSize = invocation.getArgument(1);
+            for (int from = 0; from < users.size(); from += batchSize) {
+                consumer.test(users.subList(from, Math.min(users.size(), from + batchSize)));
+            }
+            return users.isEmpty() ? null : users.get(users.size() - 1).getId();
+        });
+    }
+
+}
@@ -0,0 +1,82 @@
+package ru.aston.intensive.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.dao.InstrumentedUserDAO.Operation;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import ru.aston.intensive.metrics.OperationSnapshot;
+import java.util.Map;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class InstrumentedUserDAOTest {
+
+    @Mock
+    private UserDAO userDAO;
+
+    private InstrumentedUserDAO instrumentedDao;
+
+    @BeforeEach
+    void createInstrumentedDao() {
+        instrumentedDao = new InstrumentedUserDAO(userDAO);
+    }
+
+    @Test
+    public void testRecordsCallsAndLatency() {
+        when(userDAO.findById(1L)).thenReturn(new User());
+
+        instrumentedDao.findById(1L);
+        instrumentedDao.findById(1L);
+        OperationSnapshot snapshot = instrumentedDao.snapshot(Operation.FIND_BY_ID);
+
+        assertEquals(2, snapshot.calls());
+        assertEquals(0, snapshot.errors());
+        assertEquals(0, snapshot.inFlight());
+        assertTrue(snapshot.maxMicros() > 0);
+        assertTrue(snapshot.p50Micros() <= snapshot.p99Micros());
+    }
+
+    @Test
+    public void testRecordsErrorsByRootCause() {
+        doThrow(new UserNotFoundException("User with id=5 not found")).when(userDAO).delete(5L);
+        doThrow(new AppException("Delete failed", new IllegalStateException())).when(userDAO).delete(6L);
+
+        assertThrows(UserNotFoundException.class, () -> instrumentedDao.delete(5L));
+        assertThrows(AppException.class, () -> instrumentedDao.delete(6L));
+        OperationSnapshot snapshot = instrumentedDao.snapshot(Operation.DELETE);
+
+        assertEquals(2, snapshot.calls());
+        assertEquals(2, snapshot.errors());
+        assertEquals(Map.of("UserNotFoundException", 1L, "IllegalStateException", 1L), snapshot.errorsByCause());
+    }
+
+    @Test
+    public void testStreamIsTimedUntilClosed() {
+        when(userDAO.stream(0L, 10)).thenReturn(Stream.of(new User()));
+
+        try (Stream<User> users = instrumentedDao.stream(0L, 10)) {
+            assertEquals(1, instrumentedDao.snapshot(Operation.STREAM).inFlight());
+            assertEquals(1, users.count());
+        }
+        OperationSnapshot snapshot = instrumentedDao.snapshot(Operation.STREAM);
+
+        assertEquals(1, snapshot.calls());
+        assertEquals(0, snapshot.inFlight());
+    }
+
+    @Test
+    public void testSnapshotSkipsUnusedOperations() {
+        instrumentedDao.update(new User());
+
+        assertEquals(1, instrumentedDao.snapshot().size());
+        assertEquals("UPDATE", instrumentedDao.snapshot().get(0).operation());
+    }
+
+}
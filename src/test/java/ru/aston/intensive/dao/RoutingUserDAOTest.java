@@ -0,0 +1,110 @@
+package ru.aston.intensive.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RoutingUserDAOTest {
+
+    @Mock
+    private UserDAO primary;
+
+    @Mock
+    private UserDAO replica;
+
+    private RoutingUserDAO routingDao;
+    private User testUserIvan;
+
+    @BeforeEach
+    void createRoutingDao() {
+        routingDao = new RoutingUserDAO(primary, replica, Duration.ofMinutes(1));
+
+        testUserIvan = new User();
+        testUserIvan.setId(1L);
+        testUserIvan.setName("Ivan");
+        testUserIvan.setEmail("ivan@test.ru");
+    }
+
+    @Test
+    public void testReadsGoToReplicaAndWritesToPrimary() {
+        when(replica.findById(1L)).thenReturn(testUserIvan);
+
+        assertEquals(testUserIvan, routingDao.findById(1L));
+        verifyNoInteractions(primary);
+
+        CompletableFuture.runAsync(() -> routingDao.update(testUserIvan)).join();
+
+        verify(primary).update(testUserIvan);
+        verify(replica, never()).update(any());
+        assertEquals(1, routingDao.getReplicaReads());
+        assertEquals(1, routingDao.getWrites());
+    }
+
+    @Test
+    public void testReadsStickToPrimaryAfterWriteOnAnyThread() {
+        when(primary.save(testUserIvan)).thenReturn(1L);
+        when(primary.findById(1L)).thenReturn(testUserIvan);
+
+        CompletableFuture.runAsync(() -> routingDao.save(testUserIvan)).join();
+
+        assertEquals(RoutingUserDAO.Route.PRIMARY, routingDao.currentReadRoute());
+        assertEquals(testUserIvan, routingDao.findById(1L));
+        assertEquals(testUserIvan, CompletableFuture.supplyAsync(() -> routingDao.findById(1L)).join());
+        verify(primary, times(2)).findById(1L);
+        verifyNoInteractions(replica);
+        assertEquals(2, routingDao.getStickyReads());
+    }
+
+    @Test
+    public void testStickinessExpires() throws InterruptedException {
+        routingDao = new RoutingUserDAO(primary, replica, Duration.ofMillis(10));
+
+        routingDao.delete(1L);
+        Thread.sleep(20);
+
+        assertEquals(RoutingUserDAO.Route.REPLICA, routingDao.currentReadRoute());
+    }
+
+    @Test
+    public void testFallsBackToPrimaryWhenReplicaFails() {
+        when(replica.existsByEmail("ivan@test.ru")).thenThrow(new AppException("Email lookup failed"));
+        when(primary.existsByEmail("ivan@test.ru")).thenReturn(true);
+
+        assertTrue(routingDao.existsByEmail("ivan@test.ru"));
+        assertEquals(1, routingDao.getReplicaFailures());
+        assertEquals(1, routingDao.getPrimaryReads());
+    }
+
+    @Test
+    public void testMissingUserOnReplicaIsNotRetried() {
+        when(replica.findById(2L)).thenThrow(new UserNotFoundException("User with id=2 not found"));
+
+        assertThrows(UserNotFoundException.class, () -> routingDao.findById(2L));
+        verifyNoInteractions(primary);
+    }
+
+    @Test
+    public void testScanIsNotReplayedOnPrimaryAfterBatchWasConsumed() {
+        when(replica.forEachBatch(isNull(), eq(10), any())).thenAnswer(invocation -> {
+            invocation.<Predicate<List<User>>>getArgument(2).test(List.of(testUserIvan));
+            throw new AppException("Scan failed after id=1");
+        });
+
+        assertThrows(AppException.class, () -> routingDao.forEachBatch(null, 10, batch -> true));
+        verifyNoInteractions(primary);
+    }
+
+}
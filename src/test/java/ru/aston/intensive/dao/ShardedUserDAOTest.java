@@ -0,0 +1,302 @@
+package ru.aston.intensive.dao;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.JdbcSettings;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.entity.UserTombstone;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import ru.aston.intensive.io.ExportSummary;
+import ru.aston.intensive.io.UserExporter;
+import ru.aston.intensive.io.UserFileFormat;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ShardedUserDAOTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    @Container
+    private static final PostgreSQLContainer<?> container = new PostgreSQLContainer<>("postgres:14.1-alpine");
+
+    private static final List<SessionFactory> shardSessionFactories = new ArrayList<>();
+    private static ShardedUserDAO shardedDao;
+
+    @BeforeAll
+    static void beforeAll() {
+        try {
+            for (int shard = 0; shard < SHARD_COUNT; shard++) {
+                shardSessionFactories.add(buildSessionFactory(createDatabase("users_shard_" + shard), "shard-" + shard));
+            }
+            shardedDao = ShardedUserDAO.forSessionFactories(shardSessionFactories);
+        } catch (Exception ex) {
+            throw new AppException("Initial shard SessionFactory creation failed.", ex);
+        }
+    }
+
+    @AfterAll
+    static void closeSessionFactories() {
+        shardSessionFactories.forEach(SessionFactory::close);
+    }
+
+    @AfterEach
+    void clearShards() {
+        shardSessionFactories.forEach(sessionFactory -> sessionFactory.inTransaction(session -> {
+            session.createMutationQuery("DELETE from User").executeUpdate();
+            session.createMutationQuery("DELETE from UserTombstone").executeUpdate();
+        }));
+    }
+
+    @Test
+    public void testSavedUsersAreSpreadAcrossShardsWithUniqueIds() {
+        List<User> users = createUsers(30);
+
+        BatchSaveResult result = shardedDao.saveAll(users);
+
+        assertFalse(result.hasFailures());
+        assertEquals(30, Set.copyOf(result.savedIds()).size());
+        for (User user : users) {
+            assertEquals(shardedDao.shardOfEmail(user.getEmail()), shardedDao.shardOfId(user.getId()));
+            assertEquals(user.getEmail(), shardedDao.findById(user.getId()).getEmail());
+        }
+        for (SessionFactory sessionFactory : shardSessionFactories) {
+            long count = sessionFactory.fromSession(session ->
+                session.createSelectionQuery("select count(*) from User", Long.class).getSingleResult());
+            assertTrue(count > 0 && count < 30);
+        }
+    }
+
+    @Test
+    public void testUpsertAllReturnsGlobalIds() {
+        List<User> existing = createUsers(10);
+        shardedDao.saveAll(existing);
+        List<User> users = createUsers(20);
+        users.forEach(user -> user.setName(user.getName() + "-synced"));
+
+        BatchUpsertResult result = shardedDao.upsertAll(users);
+
+        assertEquals(10, result.inserted());
+        assertEquals(Set.copyOf(existing.stream().map(User::getId).toList()), Set.copyOf(result.updatedIds()));
+        for (User user : users) {
+            assertEquals(shardedDao.shardOfEmail(user.getEmail()), shardedDao.shardOfId(user.getId()));
+            assertEquals(user.getName(), shardedDao.findById(user.getId()).getName());
+        }
+    }
+
+    @Test
+    public void testFindByIdsAndDeleteAllAcrossShards() {
+        List<User> users = createUsers(12);
+        shardedDao.saveAll(users);
+        List<Long> ids = users.stream().map(User::getId).toList();
+        long unknownId = ids.stream().mapToLong(Long::longValue).max().orElseThrow() + SHARD_COUNT * 100L;
+
+        UserLookupResult lookup = shardedDao.findByIds(Stream.concat(ids.stream(), Stream.of(unknownId)).toList());
+
+        assertEquals(Set.copyOf(ids), lookup.found().keySet());
+        assertEquals(Set.of(unknownId), lookup.missing());
+        lookup.found().forEach((id, user) -> assertEquals(id, user.getId()));
+
+        BatchUpdateResult deletion = shardedDao.deleteAll(List.of(ids.get(0), ids.get(1), unknownId));
+
+        assertEquals(2, deletion.updated());
+        assertEquals(Set.of(unknownId), deletion.missing());
+        assertThrows(UserNotFoundException.class, () -> shardedDao.findById(ids.get(0)), "User with id=" + ids.get(0) + " not found");
+
+        List<UserChange> feed = new ArrayList<>();
+        List<UserChange> page = shardedDao.findChangedSince(null, null, 5);
+        while (!page.isEmpty()) {
+            feed.addAll(page);
+            UserChange last = page.get(page.size() - 1);
+            page = shardedDao.findChangedSince(last.changedAt(), last.id(), 5);
+        }
+        assertEquals(12, feed.size());
+        assertEquals(feed.stream().sorted(UserChange.FEED_ORDER).toList(), feed);
+        assertEquals(Set.of(ids.get(0), ids.get(1)), feed.stream().filter(UserChange::isDeleted).map(UserChange::id).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testUnitOfWorkRollsBackEveryShard() {
+        List<User> users = createUsers(12);
+
+        assertThrows(AssertionError.class, () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> {
+            shardedDao.saveAll(users);
+            assertEquals(12, shardedDao.findByIds(users.stream().map(User::getId).toList()).found().size());
+            throw new AssertionError("abort");
+        }));
+
+        UserLookupResult lookup = shardedDao.findByIds(users.stream().map(User::getId).toList());
+        assertTrue(lookup.found().isEmpty());
+        assertNull(UnitOfWork.current());
+    }
+
+    @Test
+    public void testEmailChangeToAnotherShardMovesUser() {
+        List<User> users = createUsers(2);
+        shardedDao.saveAll(users);
+        User user = users.get(0);
+        Long oldId = user.getId();
+        String movedEmail = emailOnAnotherShard(user, "moved");
+        User moved = new User(oldId, "Moved", movedEmail, user.getCreatedAt(), user.getVersion(), null);
+
+        shardedDao.update(moved);
+
+        assertNotEquals(oldId, moved.getId());
+        assertEquals(shardedDao.shardOfEmail(movedEmail), shardedDao.shardOfId(moved.getId()));
+        assertEquals(moved.getId(), shardedDao.findByEmail(movedEmail).getId());
+        assertEquals("Moved", shardedDao.findById(moved.getId()).getName());
+        assertEquals(shardedDao.findById(moved.getId()).getCreatedAt(), moved.getCreatedAt());
+        assertTrue(shardedDao.findOptionalById(oldId).isEmpty());
+        assertThrows(UserNotFoundException.class, () -> shardedDao.findByEmail(user.getEmail()));
+
+        User other = users.get(1);
+        String otherEmail = emailOnAnotherShard(other, "stale");
+        BatchUpdateResult result = shardedDao.updateAll(List.of(
+            new User(other.getId(), other.getName(), otherEmail, other.getCreatedAt(), other.getVersion() + 1, null),
+            new User(oldId, user.getName(), otherEmail, user.getCreatedAt(), null, null)));
+
+        assertEquals(0, result.updated());
+        assertEquals(Set.of(other.getId()), result.conflicts());
+        assertEquals(Set.of(oldId), result.missing());
+        assertFalse(shardedDao.existsByEmail(otherEmail));
+        assertEquals(other.getEmail(), shardedDao.findById(other.getId()).getEmail());
+    }
+
+    @Test
+    public void testEmailChangeOnSameShardKeepsId() {
+        User user = createUsers(1).get(0);
+        shardedDao.save(user);
+        String sameShardEmail = emailOnSameShard(user);
+        shardedDao.update(new User(user.getId(), user.getName(), sameShardEmail, user.getCreatedAt(), user.getVersion(), null));
+        assertEquals(user.getId(), shardedDao.findByEmail(sameShardEmail).getId());
+        assertThrows(UserNotFoundException.class, () -> shardedDao.findByEmail(user.getEmail()));
+    }
+
+    @Test
+    public void testScansMergeShardsInGlobalIdOrder() {
+        List<User> users = createUsers(25);
+        shardedDao.saveAll(users);
+        List<Long> sortedIds = users.stream().map(User::getId).sorted().toList();
+
+        List<Long> streamed;
+        try (Stream<User> stream = shardedDao.stream(sortedIds.get(4), 4)) {
+            streamed = stream.map(User::getId).toList();
+        }
+        List<Long> batched = new ArrayList<>();
+        Long lastSeenId = shardedDao.forEachBatch(null, 7, batch -> {
+            batch.forEach(user -> batched.add(user.getId()));
+            return true;
+        });
+        ConcurrentLinkedQueue<Long> parallel = new ConcurrentLinkedQueue<>();
+        shardedDao.forEachBatchInParallel(5, batch -> {
+            batch.forEach(user -> parallel.add(user.getId()));
+            return true;
+        });
+
+        assertEquals(sortedIds.subList(5, 25), streamed);
+        assertEquals(sortedIds, batched);
+        assertEquals(sortedIds.get(24), lastSeenId);
+        assertEquals(Set.copyOf(sortedIds), Set.copyOf(parallel));
+        assertEquals(25, parallel.size());
+    }
+
+    @Test
+    public void testExportsAllShardsWithGlobalIds(@TempDir Path directory) throws IOException {
+        List<User> users = createUsers(10);
+        shardedDao.saveAll(users);
+        Path csv = directory.resolve("users.csv");
+
+        ExportSummary summary = UserExporter.forShards(shardSessionFactories, 4).export(csv, UserFileFormat.CSV, false);
+
+        assertEquals(10, summary.rows());
+        Map<Long, String> exported = Files.readAllLines(csv).stream()
+            .skip(1)
+            .map(line -> line.split(","))
+            .collect(Collectors.toMap(fields -> Long.valueOf(fields[0]), fields -> fields[2] + "," + fields[3]));
+        for (User user : users) {
+            User stored = shardedDao.findById(user.getId());
+            assertEquals(stored.getEmail() + "," + stored.getCreatedAt(), exported.get(user.getId()));
+        }
+    }
+
+    private String emailOnAnotherShard(User user, String prefix) {
+        for (int i = 0; ; i++) {
+            String email = prefix + i + "@test.ru";
+            if (shardedDao.shardOfEmail(email) != shardedDao.shardOfId(user.getId())) {
+                return email;
+            }
+        }
+    }
+
+    private String emailOnSameShard(User user) {
+        for (int i = 0; ; i++) {
+            String email = "renamed" + i + "@test.ru";
+            if (shardedDao.shardOfEmail(email) == shardedDao.shardOfId(user.getId())) {
+                return email;
+            }
+        }
+    }
+
+    private static String createDatabase(String database) throws Exception {
+        String url = container.getJdbcUrl();
+        try (Connection connection = DriverManager.getConnection(url, container.getUsername(), container.getPassword());
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP DATABASE IF EXISTS " + database);
+            statement.execute("CREATE DATABASE " + database);
+        }
+        return url.replaceFirst("/[^/?]+(\\?|$)", "/" + database + "$1");
+    }
+
+    private static SessionFactory buildSessionFactory(String url, String regionPrefix) {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            .configure("hibernate.cfg.xml")
+            .applySetting(JdbcSettings.JAKARTA_JDBC_URL, url)
+            .applySetting(JdbcSettings.JAKARTA_JDBC_USER, container.getUsername())
+            .applySetting(JdbcSettings.JAKARTA_JDBC_PASSWORD, container.getPassword())
+            .applySetting("hibernate.hikari.poolName", url)
+            .applySetting("hibernate.cache.region_prefix", regionPrefix)
+            .applySetting("hibernate.jdbc.time_zone", "Asia/Tokyo")
+            .build();
+
+        return new MetadataSources(registry)
+            .addAnnotatedClass(User.class)
+            .addAnnotatedClass(UserTombstone.class)
+            .getMetadataBuilder()
+            .build()
+            .getSessionFactoryBuilder()
+            .build();
+    }
+
+    private List<User> createUsers(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("User" + i);
+            user.setEmail("user" + i + "@test.ru");
+            users.add(user);
+        }
+        return users;
+    }
+
+}
@@ -0,0 +1,77 @@
+package ru.aston.intensive.dao;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.JdbcSettings;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.entity.UserTombstone;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserDAOHibernateImplH2Test {
+
+    private static SessionFactory sessionFactory;
+    private static UserDAOHibernateImpl userDao;
+
+    @BeforeAll
+    static void beforeAll() {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            .configure("hibernate.cfg.xml")
+            .applySetting(JdbcSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:users;MODE=PostgreSQL;DB_CLOSE_DELAY=-1")
+            .applySetting(JdbcSettings.JAKARTA_JDBC_DRIVER, "org.h2.Driver")
+            .applySetting(JdbcSettings.JAKARTA_JDBC_USER, "sa")
+            .applySetting(JdbcSettings.JAKARTA_JDBC_PASSWORD, "")
+            .applySetting("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+            .build();
+
+        sessionFactory = new MetadataSources(registry)
+            .addAnnotatedClass(User.class)
+            .addAnnotatedClass(UserTombstone.class)
+            .buildMetadata()
+            .buildSessionFactory();
+        userDao = new UserDAOHibernateImpl(sessionFactory, 2);
+    }
+
+    @AfterAll
+    static void closeSessionFactory() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void testUpsertAllRunsAsMerge() {
+        List<User> existing = createUsers(3);
+        userDao.saveAll(existing);
+        userDao.findById(existing.get(0).getId());
+
+        List<User> users = createUsers(5);
+        users.forEach(user -> user.setName(user.getName() + "-synced"));
+
+        BatchUpsertResult result = userDao.upsertAll(users);
+
+        assertEquals(existing.stream().map(User::getId).toList(), result.updatedIds());
+        assertEquals(2, result.inserted());
+        assertEquals(1L, users.get(0).getVersion());
+        assertEquals(existing.get(0).getCreatedAt(), users.get(0).getCreatedAt());
+        assertEquals(0L, users.get(4).getVersion());
+        assertEquals("User0-synced", userDao.findById(existing.get(0).getId()).getName());
+        assertEquals(users.get(4).getId(), userDao.findByEmail("user4@test.ru").getId());
+    }
+
+    private static List<User> createUsers(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("User" + i);
+            user.setEmail("user" + i + "@test.ru");
+            users.add(user);
+        }
+        return users;
+    }
+
+}
@@ -2,16 +2,45 @@ package ru.aston.intensive.dao;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
+import org.hibernate.stat.CacheRegionStatistics;
 import ru.aston.intensive.entity.User;
+import ru.aston.intensive.entity.UserTombstone;
 import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.OptimisticConflictException;
+import ru.aston.intensive.exception.UserNotFoundException;
+import ru.aston.intensive.io.ExportSummary;
+import ru.aston.intensive.io.ImportSummary;
+import ru.aston.intensive.io.UserExporter;
+import ru.aston.intensive.io.UserFileFormat;
+import ru.aston.intensive.io.UserImporter;
+import ru.aston.intensive.service.UserService;
+import ru.aston.intensive.utils.OffHeapUserStore;
+import ru.aston.intensive.utils.PoolMetrics;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import static org.junit.jupiter.api.Assertions.*;
 
 @Testcontainers
@@ -37,6 +66,7 @@ public class UserDAOHibernateImplTest {
 
             Metadata metadata = new MetadataSources(registry)
                 .addAnnotatedClass(User.class)
+                .addAnnotatedClass(UserTombstone.class)
                 .getMetadataBuilder()
                 .build();
 
@@ -67,6 +97,7 @@ public class UserDAOHibernateImplTest {
             session.beginTransaction();
 
             session.createMutationQuery("DELETE from User").executeUpdate();
+            session.createMutationQuery("DELETE from UserTombstone").executeUpdate();
 
             session.getTransaction().commit();
         }
@@ -105,6 +136,32 @@ public class UserDAOHibernateImplTest {
         assertThrows(IllegalStateException.class, () -> userDao.save(user));
     }
 
+    @Test
+    public void testSaveAllInSeveralBatches() {
+        List<User> users = createUsers(120);
+
+        BatchSaveResult result = userDao.saveAll(users);
+
+        assertFalse(result.hasFailures());
+        assertEquals(120, result.savedIds().size());
+        users.forEach(user -> assertEquals(user.getName(), userDao.findById(user.getId()).getName()));
+    }
+
+    @Test
+    public void testSaveAllKeepsSuccessfulBatchesWhenOneFails() {
+        List<User> users = createUsers(120);
+        users.get(60).setEmail(users.get(61).getEmail());
+
+        BatchSaveResult result = userDao.saveAll(users);
+
+        assertEquals(1, result.failures().size());
+        assertEquals(1, result.failures().get(0).batchIndex());
+        assertEquals(50, result.failedCount());
+        assertEquals(70, result.savedIds().size());
+        assertNull(users.get(60).getId());
+        assertNotNull(userDao.findById(users.get(0).getId()));
+    }
+
     @Test
     public void testFindById() {
         userDao.save(testUserAnna);
@@ -123,6 +180,50 @@ public class UserDAOHibernateImplTest {
         assertThrows(AppException.class, () -> userDao.findById(5L), "User with id=5 not found");
     }
 
+    @Test
+    public void testFindByIdsReportsMissingIds() {
+        List<User> users = createUsers(3);
+        userDao.saveAll(users);
+        Long firstId = users.get(0).getId();
+        Long missingId = users.get(2).getId() + 1000;
+
+        UserLookupResult result = userDao.findByIds(List.of(firstId, firstId, users.get(1).getId(), missingId));
+
+        assertEquals(2, result.found().size());
+        assertEquals("User0", result.found().get(firstId).getName());
+        assertEquals(Set.of(missingId), result.missing());
+    }
+
+    @Test
+    public void testFindByIdsInParallelChunks() {
+        List<User> users = createUsers(1500);
+        userDao.saveAll(users);
+        List<Long> ids = new ArrayList<>(users.stream().map(User::getId).toList());
+        ids.add(-1L);
+
+        UserLookupResult result = userDao.findByIds(ids, 4);
+
+        assertEquals(1500, result.found().size());
+        assertEquals(Set.of(-1L), result.missing());
+    }
+
+    @Test
+    public void testFindByEmail() {
+        userDao.save(testUserAnna);
+
+        User retrievedUser = userDao.findByEmail(testUserAnna.getEmail());
+
+        assertEquals(testUserAnna.getId(), retrievedUser.getId());
+        assertTrue(userDao.existsByEmail(testUserAnna.getEmail()));
+    }
+
+    @Test
+    public void testFindByEmailNotExistsUser() {
+
+        assertThrows(AppException.class, () -> userDao.findByEmail("nobody@test.ru"));
+        assertFalse(userDao.existsByEmail("nobody@test.ru"));
+    }
+
     @Test
     public void testUpdateUser() {
         userDao.save(testUserAnna);
@@ -143,6 +244,98 @@ public class UserDAOHibernateImplTest {
         assertThrows(AppException.class, () -> userDao.update(testUserAnna), "User with id=5 not found");
     }
 
+    @Test
+    public void testUpdateKeepsCreationDate() {
+        userDao.save(testUserAnna);
+        LocalDateTime createdAt = userDao.findById(testUserAnna.getId()).getCreatedAt();
+        testUserAnna.setName("Inna");
+        testUserAnna.setCreatedAt(null);
+
+        userDao.update(testUserAnna);
+
+        assertEquals(createdAt, userDao.findById(testUserAnna.getId()).getCreatedAt());
+    }
+
+    @Test
+    public void testUpdateAndDeleteNotExistsUserReportNotFound() {
+        testUserAnna.setId(5L);
+
+        assertThrows(UserNotFoundException.class, () -> userDao.update(testUserAnna));
+        assertThrows(UserNotFoundException.class, () -> userDao.delete(5L));
+    }
+
+    @Test
+    public void testOptionalLookupAndConditionalWritesReportMissesWithoutExceptions() {
+        Long testUserId = userDao.save(testUserAnna);
+
+        assertEquals(testUserAnna.getEmail(), userDao.findOptionalById(testUserId).orElseThrow().getEmail());
+        assertTrue(userDao.findOptionalById(testUserId + 1000).isEmpty());
+
+        testUserAnna.setName("Anna Petrova");
+        assertEquals(1, userDao.updateIfPresent(testUserAnna));
+        assertEquals("Anna Petrova", userDao.findById(testUserId).getName());
+
+        assertEquals(1, userDao.deleteIfPresent(testUserId));
+        assertEquals(0, userDao.deleteIfPresent(testUserId));
+        assertEquals(0, userDao.updateIfPresent(testUserAnna));
+    }
+
+    @Test
+    public void testNotFoundExceptionIsCheap() {
+        UserNotFoundException e = assertThrows(UserNotFoundException.class, () -> userDao.findById(5L));
+
+        assertEquals(0, e.getStackTrace().length);
+        assertEquals("User with id=5 not found", e.getMessage());
+    }
+
+    @Test
+    public void testUpsertAllInsertsNewAndUpdatesExistingUsersByEmail() {
+        List<User> existing = createUsers(60);
+        userDao.saveAll(existing);
+        LocalDateTime createdAt = userDao.findById(existing.get(0).getId()).getCreatedAt();
+        // Warms the second-level cache, the upsert must not leave the stale entry readable
+        userDao.findById(existing.get(1).getId());
+
+        List<User> users = createUsers(130);
+        users.forEach(user -> user.setName(user.getName() + "-synced"));
+        User repeated = createUsers(2).get(1);
+        repeated.setName("User1-last");
+        users.add(repeated);
+
+        BatchUpsertResult result = userDao.upsertAll(users);
+
+        assertEquals(70, result.inserted());
+        assertEquals(60, result.updated());
+        assertEquals(existing.stream().map(User::getId).toList(), result.updatedIds());
+        assertEquals(users.get(0).getId(), existing.get(0).getId());
+        assertEquals(1L, users.get(0).getVersion());
+        assertEquals(createdAt, users.get(0).getCreatedAt());
+        assertEquals(result.insertedIds().get(0), users.get(60).getId());
+        assertEquals(0L, users.get(60).getVersion());
+        assertEquals(users.get(1).getId(), repeated.getId());
+
+        assertEquals("User0-synced", userDao.findById(existing.get(0).getId()).getName());
+        assertEquals("User1-last", userDao.findById(existing.get(1).getId()).getName());
+        assertEquals("User129-synced", userDao.findByEmail("user129@test.ru").getName());
+        // Ids come from the entity's sequence, so later saves do not collide with upserted users
+        assertNotNull(userDao.save(testUserAnna));
+    }
+
+    @Test
+    public void testUpdateAllInOneTransactionReportsMissingIds() {
+        List<User> users = createUsers(3);
+        userDao.saveAll(users);
+        users.forEach(user -> user.setName(user.getName() + "-updated"));
+        User missingUser = createUsers(4).get(3);
+        missingUser.setId(users.get(2).getId() + 1000);
+
+        BatchUpdateResult result = userDao.updateAll(List.of(users.get(0), users.get(1), users.get(2), missingUser));
+
+        assertEquals(3, result.updated());
+        assertEquals(Set.of(missingUser.getId()), result.missing());
+        assertEquals("User1-updated", userDao.findById(users.get(1).getId()).getName());
+    }
+
     @Test
     public void testUpdateDeletedUser() {
         Long testUserId = userDao.save(testUserAnna);
@@ -175,6 +368,19 @@ public class UserDAOHibernateImplTest {
         assertThrows(AppException.class, () -> userDao.findById(testUserId));
     }
 
+    @Test
+    public void testDeleteAllReportsMissingIds() {
+        List<User> users = createUsers(2);
+        userDao.saveAll(users);
+        Long missingId = users.get(1).getId() + 1000;
+
+        BatchUpdateResult result = userDao.deleteAll(List.of(users.get(0).getId(), users.get(1).getId(), missingId));
+
+        assertEquals(2, result.updated());
+        assertEquals(Set.of(missingId), result.missing());
+        assertThrows(UserNotFoundException.class, () -> userDao.findById(users.get(0).getId()));
+    }
+
     @Test
     public void testDeleteNotExistsUser() {
         Long testUserId = 5L;
@@ -183,4 +389,396 @@ public class UserDAOHibernateImplTest {
         assertThrows(AppException.class, () -> userDao.delete(testUserId), String.format("User with id=%s not found", testUserId));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testForEachBatchWalksAllUsersInIdOrder() {
+        userDao.saveAll(createUsers(25));
+        List<Long> seenIds = new ArrayList<>();
+        AtomicInteger batches = new AtomicInteger();
+
+        Long lastSeenId = userDao.forEachBatch(null, 10, batch -> {
+            batches.incrementAndGet();
+            batch.forEach(user -> seenIds.add(user.getId()));
+            return true;
+        });
+
+        assertEquals(3, batches.get());
+        assertEquals(25, seenIds.size());
+        assertEquals(seenIds.stream().sorted().toList(), seenIds);
+        assertEquals(seenIds.get(24), lastSeenId);
+    }
+
+    @Test
+    public void testForEachBatchStopsEarlyAndResumes() {
+        userDao.saveAll(createUsers(25));
+
+        Long cursor = userDao.forEachBatch(null, 10, batch -> false);
+        List<Long> restIds = new ArrayList<>();
+        userDao.forEachBatch(cursor, 10, batch -> restIds.addAll(batch.stream().map(User::getId).toList()));
+
+        assertEquals(15, restIds.size());
+        assertTrue(restIds.stream().allMatch(id -> id > cursor));
+    }
+
+    @Test
+    public void testStreamIsLazyAndResumable() {
+        List<User> users = createUsers(25);
+        userDao.saveAll(users);
+        Long afterId = users.get(4).getId();
+
+        List<String> names;
+        try (Stream<User> stream = userDao.stream(afterId, 7)) {
+            names = stream.limit(12).map(User::getName).collect(Collectors.toList());
+        }
+
+        assertEquals(12, names.size());
+        assertEquals("User5", names.get(0));
+        assertEquals("User16", names.get(11));
+    }
+
+    @Test
+    public void testCancelledOperationDoesNotOpenSession() {
+        Long userId = userDao.save(testUserAnna);
+        SessionCancellation cancellation = new SessionCancellation();
+        cancellation.cancel();
+
+        assertThrows(AppException.class, () -> cancellation.run(() -> userDao.findById(userId)), "Operation cancelled");
+    }
+
+    @Test
+    public void testConnectionsAreTakenFromPool() {
+        userDao.save(testUserAnna);
+        userDao.findById(testUserAnna.getId());
+
+        PoolMetrics poolMetrics = PoolMetrics.of(testSessionFactory);
+
+        assertTrue(poolMetrics.getAcquisitions() >= 2);
+        assertEquals(0, poolMetrics.getAcquireTimeouts());
+        assertEquals(0, poolMetrics.getActiveConnections());
+    }
+
+    @Test
+    public void testExportsUsersAsCsvAndCompressedJsonLines(@TempDir Path directory) throws IOException {
+        List<User> users = createUsers(25);
+        users.get(0).setName("Petrov, \"Ivan\"");
+        userDao.saveAll(users);
+        UserExporter exporter = new UserExporter(() -> testSessionFactory, 10);
+
+        Path csv = directory.resolve("users.csv");
+        ExportSummary csvSummary = exporter.export(csv, UserFileFormat.CSV, false);
+        Path jsonl = directory.resolve("users.jsonl.gz");
+        ExportSummary jsonlSummary = exporter.export(jsonl, UserFileFormat.of(jsonl), UserFileFormat.isCompressed(jsonl));
+
+        assertEquals(25, csvSummary.rows());
+        List<String> csvLines = Files.readAllLines(csv);
+        assertEquals(26, csvLines.size());
+        assertEquals("id,name,email,created_at", csvLines.get(0));
+        assertTrue(csvLines.get(1).startsWith(users.get(0).getId() + ",\"Petrov, \"\"Ivan\"\"\",user0@test.ru,"));
+
+        assertEquals(25, jsonlSummary.rows());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(jsonl)), StandardCharsets.UTF_8))) {
+            List<String> jsonLines = reader.lines().toList();
+            assertEquals(25, jsonLines.size());
+            assertTrue(jsonLines.get(0).startsWith("{\"id\":" + users.get(0).getId() + ",\"name\":\"Petrov, \\\"Ivan\\\"\""));
+        }
+        assertFalse(Files.exists(directory.resolve("users.csv.tmp")));
+    }
+
+    @Test
+    public void testExportedUsersCanBeImportedAgain(@TempDir Path directory) {
+        List<User> users = createUsers(25);
+        users.get(0).setName("Petrov, \"Ivan\"");
+        userDao.saveAll(users);
+        UserExporter exporter = new UserExporter(() -> testSessionFactory, 10);
+        UserImporter importer = new UserImporter(new UserService(userDao), 10, 2);
+
+        for (Path file : List.of(directory.resolve("users.csv.gz"), directory.resolve("users.jsonl"))) {
+            exporter.export(file, UserFileFormat.of(file), UserFileFormat.isCompressed(file));
+            userDao.deleteAll(users.stream().map(User::getId).toList());
+
+            ImportSummary summary = importer.importFile(file, UserFileFormat.of(file));
+
+            assertEquals(25, summary.imported());
+            assertEquals(0, summary.rejected());
+            assertEquals("Petrov, \"Ivan\"", userDao.findByEmail("user0@test.ru").getName());
+            users = users.stream().map(user -> userDao.findByEmail(user.getEmail())).toList();
+        }
+    }
+
+    @Test
+    public void testFindByIdIsServedFromSecondLevelCache() {
+        userDao.save(testUserAnna);
+        CacheRegionStatistics region = testSessionFactory.getStatistics().getDomainDataRegionStatistics(User.CACHE_REGION);
+        long hitsBefore = region.getHitCount();
+
+        userDao.findById(testUserAnna.getId());
+        userDao.findById(testUserAnna.getId());
+
+        assertTrue(region.getHitCount() - hitsBefore >= 1);
+    }
+
+    @Test
+    public void testCachedUserAndEmailLookupAreInvalidatedOnUpdate() {
+        userDao.save(testUserAnna);
+        userDao.findById(testUserAnna.getId());
+        userDao.findByEmail("anna@test.ru");
+        assertTrue(userDao.existsByEmail("anna@test.ru"));
+
+        userDao.update(new User(testUserAnna.getId(), "Anna Petrova", "petrova@test.ru", testUserAnna.getCreatedAt(), null, null));
+
+        assertEquals("Anna Petrova", userDao.findById(testUserAnna.getId()).getName());
+        assertFalse(userDao.existsByEmail("anna@test.ru"));
+        assertThrows(UserNotFoundException.class, () -> userDao.findByEmail("anna@test.ru"));
+        assertEquals(testUserAnna.getId(), userDao.findByEmail("petrova@test.ru").getId());
+
+        userDao.updateAll(List.of(new User(testUserAnna.getId(), "Anna Sidorova", "sidorova@test.ru", null, null, null)));
+
+        assertEquals("Anna Sidorova", userDao.findById(testUserAnna.getId()).getName());
+    }
+
+    @Test
+    public void testRowReadBeforeBatchUpdateIsNotCached() {
+        userDao.save(testUserAnna);
+        testSessionFactory.getCache().evictEntityData(User.class, testUserAnna.getId());
+
+        try (Session reader = testSessionFactory.openSession()) {
+            Transaction transaction = reader.beginTransaction();
+            userDao.updateAll(List.of(new User(testUserAnna.getId(), "Anna Petrova", "anna@test.ru", null, null, null)));
+            reader.get(User.class, testUserAnna.getId());
+            transaction.commit();
+        }
+        CacheRegionStatistics region = testSessionFactory.getStatistics().getDomainDataRegionStatistics(User.CACHE_REGION);
+        long hitsBefore = region.getHitCount();
+
+        assertEquals("Anna Petrova", userDao.findById(testUserAnna.getId()).getName());
+        assertEquals(hitsBefore, region.getHitCount());
+    }
+
+    @Test
+    public void testEmailLookupReadBeforeBatchUpdateIsNotCached() {
+        userDao.save(testUserAnna);
+
+        try (Session reader = testSessionFactory.openSession()) {
+            reader.doWork(connection -> connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ));
+            Transaction transaction = reader.beginTransaction();
+            reader.createSelectionQuery("select count(*) from User", Long.class).getSingleResult();
+            userDao.updateAll(List.of(new User(testUserAnna.getId(), "Anna", "petrova@test.ru", null, null, null)));
+            // The snapshot still has the old email, and the result is cached after the update has completed
+            assertNotNull(reader.createSelectionQuery("select 1 from User where email = :email", Integer.class)
+                .setParameter("email", "anna@test.ru")
+                .setCacheable(true)
+                .setCacheRegion(UserDAOHibernateImpl.LOOKUP_CACHE_REGION)
+                .uniqueResult());
+            transaction.commit();
+        }
+
+        assertFalse(userDao.existsByEmail("anna@test.ru"));
+    }
+
+    @Test
+    public void testCachedUserIsInvalidatedOnDelete() {
+        List<User> users = createUsers(2);
+        userDao.saveAll(users);
+        users.forEach(user -> userDao.findById(user.getId()));
+
+        userDao.delete(users.get(0).getId());
+        userDao.deleteAll(List.of(users.get(1).getId()));
+
+        CacheRegionStatistics region = testSessionFactory.getStatistics().getDomainDataRegionStatistics(User.CACHE_REGION);
+        long hitsBefore = region.getHitCount();
+
+        users.forEach(user -> assertThrows(UserNotFoundException.class, () -> userDao.findById(user.getId())));
+        assertEquals(hitsBefore, region.getHitCount());
+    }
+
+    @Test
+    public void testVersionedUpdateDetectsConcurrentChange() {
+        userDao.save(testUserAnna);
+        assertEquals(0L, testUserAnna.getVersion());
+        User first = userDao.findById(testUserAnna.getId());
+        User second = userDao.findById(testUserAnna.getId());
+
+        first.setName("Inna");
+        userDao.update(first);
+        second.setName("Alla");
+
+        assertEquals(1L, first.getVersion());
+        assertThrows(OptimisticConflictException.class, () -> userDao.update(second));
+        User stored = userDao.findById(testUserAnna.getId());
+        assertEquals("Inna", stored.getName());
+        assertEquals(1L, stored.getVersion());
+    }
+
+    @Test
+    public void testUpdateAllSeparatesConflictsFromMissingUsers() {
+        List<User> users = createUsers(3);
+        userDao.saveAll(users);
+        userDao.update(new User(users.get(0).getId(), "Changed", "changed@test.ru", null, null, null));
+        User unknown = new User(users.get(2).getId() + 1000, "Ghost", "ghost@test.ru", null, 0L, null);
+
+        BatchUpdateResult result = userDao.updateAll(List.of(users.get(0), users.get(1), unknown));
+
+        assertEquals(1, result.updated());
+        assertEquals(Set.of(users.get(0).getId()), result.conflicts());
+        assertEquals(Set.of(unknown.getId()), result.missing());
+        assertEquals(1L, users.get(1).getVersion());
+        assertEquals("Changed", userDao.findById(users.get(0).getId()).getName());
+    }
+
+    @Test
+    public void testChangeFeedReturnsWritesAndDeletesAfterCursor() {
+        List<User> users = createUsers(4);
+        userDao.saveAll(users);
+        LocalDateTime afterSave = users.stream().map(User::getUpdatedAt).max(LocalDateTime::compareTo).orElseThrow();
+
+        List<UserChange> all = userDao.findChangedSince(null, null, 10);
+        assertEquals(4, all.size());
+        assertEquals(users.get(0).getId(), all.get(0).id());
+
+        User changed = users.get(1);
+        changed.setName("Changed");
+        userDao.update(changed);
+        assertTrue(changed.getUpdatedAt().isAfter(afterSave) || changed.getUpdatedAt().isEqual(afterSave));
+        userDao.delete(users.get(2).getId());
+
+        UserChange lastSeen = all.get(all.size() - 1);
+        List<UserChange> delta = userDao.findChangedSince(lastSeen.changedAt(), lastSeen.id(), 10);
+        assertEquals(List.of(changed.getId(), users.get(2).getId()), delta.stream().map(UserChange::id).toList());
+        assertEquals("Changed", delta.get(0).user().getName());
+        assertTrue(delta.get(1).isDeleted());
+
+        List<UserChange> firstPage = userDao.findChangedSince(lastSeen.changedAt(), lastSeen.id(), 1);
+        assertEquals(List.of(delta.get(0).id()), firstPage.stream().map(UserChange::id).toList());
+        UserChange cursor = delta.get(1);
+        assertTrue(userDao.findChangedSince(cursor.changedAt(), cursor.id(), 10).isEmpty());
+    }
+
+    @Test
+    public void testSearchRanksMatchesAndBoundsResults() {
+        // Same indexes as in the README, the planner may still scan a table this small
+        testSessionFactory.inTransaction(session -> {
+            session.createNativeMutationQuery("create extension if not exists pg_trgm").executeUpdate();
+            session.createNativeMutationQuery(
+                "create index if not exists users_name_trgm_idx on users using gin (lower(name) gin_trgm_ops)").executeUpdate();
+            session.createNativeMutationQuery(
+                "create index if not exists users_name_prefix_idx on users (lower(name) text_pattern_ops)").executeUpdate();
+        });
+        userDao.saveAll(List.of(
+            newUser("Marianna", "maria@test.ru"),
+            newUser("Ivan Annenkov", "ivan@test.ru"),
+            newUser("Annabel Lee", "lee@test.ru"),
+            newUser("Boris", "boris@test.ru"),
+            newUser("Ann", "ann@test.ru")));
+
+        assertEquals(List.of("Ann", "Annabel Lee", "Ivan Annenkov", "Marianna"),
+            userDao.search("ANN", 10).stream().map(User::getName).toList());
+        assertEquals(List.of("Ann", "Annabel Lee"), userDao.search("ann", 2).stream().map(User::getName).toList());
+        assertEquals(List.of("Ivan Annenkov"), userDao.search("iv", 10).stream().map(User::getName).toList());
+        assertEquals(List.of("Boris"), userDao.search("boris@", 10).stream().map(User::getName).toList());
+        assertTrue(userDao.search("a%", 10).isEmpty());
+        assertThrows(AppException.class, () -> userDao.search(" ", 10));
+    }
+
+    @Test
+    public void testInMemorySearchMatchesDatabaseWithoutSubstrings() {
+        userDao.saveAll(List.of(
+            newUser("Zoe", "ann.zoe@test.ru"),
+            newUser("Marianna", "maria@test.ru"),
+            newUser("Ivan Annenkov", "ivan@test.ru"),
+            newUser("Annabel Lee", "lee@test.ru"),
+            newUser("Ann", "ann@test.ru")));
+        InMemoryUserDAO inMemoryDao = new InMemoryUserDAO(userDao, 10, OffHeapUserStore.DEFAULT_SEGMENT_SIZE, true);
+
+        for (String query : List.of("ann", "an", "Lee", "zoe", "test")) {
+            for (int limit : List.of(1, 2, 10)) {
+                List<User> expected = userDao.search(query, limit).stream()
+                    .filter(user -> UserSearch.rank(user, UserSearch.normalize(query)) < UserSearch.SUBSTRING)
+                    .toList();
+                assertEquals(expected.stream().map(User::getId).toList(),
+                    inMemoryDao.search(query, limit).stream().map(User::getId).toList(), query + " limit " + limit);
+            }
+        }
+        assertEquals(List.of("Ann", "Annabel Lee"), inMemoryDao.search("ann", 2).stream().map(User::getName).toList());
+    }
+
+    @Test
+    public void testUnitOfWorkSeesOwnWritesAndRollsBackOnFailure() {
+        assertThrows(IllegalStateException.class, () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> {
+            userDao.save(testUserAnna);
+            testUserAnna.setName("Inna");
+            userDao.update(testUserAnna);
+            assertEquals("Inna", userDao.findById(testUserAnna.getId()).getName());
+            assertTrue(userDao.existsByEmail("anna@test.ru"));
+            throw new IllegalStateException("abort");
+        }));
+
+        assertThrows(UserNotFoundException.class, () -> userDao.findById(testUserAnna.getId()));
+        assertFalse(userDao.existsByEmail("anna@test.ru"));
+        assertNull(UnitOfWork.current());
+    }
+
+    @Test
+    public void testUnitOfWorkCommitsAllOperationsTogether() {
+        List<User> users = createUsers(3);
+        Long annaId = UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> {
+            userDao.saveAll(users);
+            userDao.deleteIfPresent(users.get(0).getId());
+            return userDao.save(testUserAnna);
+        });
+
+        assertEquals("Anna", userDao.findById(annaId).getName());
+        assertFalse(userDao.findOptionalById(users.get(0).getId()).isPresent());
+        assertEquals(1, userDao.findChangedSince(null, null, 10).stream().filter(UserChange::isDeleted).count());
+    }
+
+    @Test
+    public void testNestedPropagation() {
+        userDao.save(testUserAnna);
+
+        // A failure caught inside the unit still rolls everything back
+        assertThrows(AppException.class, () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> {
+            userDao.update(new User(testUserAnna.getId(), "Inna", "inna@test.ru", null, null, null));
+            UnitOfWork.run(UnitOfWork.Propagation.REQUIRES_NEW, false, () -> userDao.save(newUser("Boris", "boris@test.ru")));
+            assertThrows(UserNotFoundException.class,
+                () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> userDao.findById(-1L)));
+            return null;
+        }));
+
+        assertEquals("Anna", userDao.findById(testUserAnna.getId()).getName());
+        assertTrue(userDao.existsByEmail("boris@test.ru"));
+    }
+
+    @Test
+    public void testReadOnlyUnitOfWorkRejectsWrites() {
+        userDao.save(testUserAnna);
+
+        String name = UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, true,
+            () -> userDao.findById(testUserAnna.getId()).getName());
+        assertEquals("Anna", name);
+
+        assertThrows(AppException.class, () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, true,
+            () -> userDao.deleteIfPresent(testUserAnna.getId())));
+        assertThrows(AppException.class, () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, true,
+            () -> UnitOfWork.run(UnitOfWork.Propagation.REQUIRED, false, () -> null)));
+        assertTrue(userDao.findOptionalById(testUserAnna.getId()).isPresent());
+    }
+
+    private static User newUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        return user;
+    }
+
+    private List<User> createUsers(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("User" + i);
+            user.setEmail("user" + i + "@test.ru");
+            users.add(user);
+        }
+        return users;
+    }
+
+}
@@ -0,0 +1,137 @@
+package ru.aston.intensive.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class WriteBehindUserDAOTest {
+
+    @Mock
+    private UserDAO userDAO;
+
+    private WriteBehindUserDAO writeBehindDao;
+
+    @AfterEach
+    void closeWriteBehindDao() {
+        writeBehindDao.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdatesOfSameUserAreCoalesced() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 100, Duration.ofMinutes(1));
+        when(userDAO.updateAll(anyCollection())).thenReturn(new BatchUpdateResult(2, Set.of()));
+
+        writeBehindDao.update(createUser(1L, "Ivan"));
+        writeBehindDao.update(createUser(1L, "Inna"));
+        writeBehindDao.update(createUser(2L, "Anna"));
+        writeBehindDao.flush();
+
+        ArgumentCaptor<Collection<User>> batchCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(userDAO, times(1)).updateAll(batchCaptor.capture());
+        List<String> names = batchCaptor.getValue().stream().map(User::getName).toList();
+        assertEquals(List.of("Inna", "Anna"), names);
+        assertEquals(1, writeBehindDao.getCoalescedUpdates());
+        assertEquals(0, writeBehindDao.getPendingCount());
+    }
+
+    @Test
+    public void testUpdateAllIsWrittenAfterQueuedUpdates() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 100, Duration.ofMinutes(1));
+        when(userDAO.updateAll(anyCollection()))
+            .thenReturn(new BatchUpdateResult(1, Set.of()))
+            .thenReturn(new BatchUpdateResult(1, Set.of(3L)));
+
+        writeBehindDao.update(createUser(1L, "Ivan"));
+        BatchUpdateResult result = writeBehindDao.updateAll(List.of(createUser(1L, "Inna"), createUser(3L, "Anna")));
+
+        assertEquals(Set.of(3L), result.missing());
+        assertEquals(0, writeBehindDao.getPendingCount());
+        InOrder inOrder = inOrder(userDAO);
+        inOrder.verify(userDAO).updateAll(argThat(users -> users.size() == 1));
+        inOrder.verify(userDAO).updateAll(argThat(users -> users.size() == 2));
+    }
+
+    @Test
+    public void testFlushesWhenBatchIsFull() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 2, Duration.ofMinutes(1));
+        when(userDAO.updateAll(anyCollection())).thenReturn(new BatchUpdateResult(2, Set.of()));
+
+        writeBehindDao.update(createUser(1L, "Ivan"));
+        writeBehindDao.update(createUser(2L, "Anna"));
+
+        verify(userDAO, timeout(5000).times(1)).updateAll(anyCollection());
+    }
+
+    @Test
+    public void testFindByIdSeesPendingUpdate() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 100, Duration.ofMinutes(1));
+        when(userDAO.findById(1L)).thenReturn(createUser(1L, "Ivan"));
+
+        writeBehindDao.update(createUser(1L, "Inna"));
+
+        assertEquals("Inna", writeBehindDao.findById(1L).getName());
+    }
+
+    @Test
+    public void testCloseDrainsPendingUpdates() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 100, Duration.ofMinutes(1));
+        when(userDAO.updateAll(anyCollection())).thenReturn(new BatchUpdateResult(1, Set.of()));
+
+        writeBehindDao.update(createUser(1L, "Ivan"));
+        writeBehindDao.close();
+
+        verify(userDAO, times(1)).updateAll(anyCollection());
+        assertThrows(AppException.class, () -> writeBehindDao.update(createUser(1L, "Inna")));
+    }
+
+    @Test
+    public void testFailedGroupCommitIsRetriedOneByOne() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 100, Duration.ofMinutes(1));
+        when(userDAO.updateAll(anyCollection())).thenThrow(new AppException("Batch update failed"));
+        lenient().doThrow(new AppException("Update failed")).when(userDAO).update(argThat(user -> user.getId() == 2L));
+
+        writeBehindDao.update(createUser(1L, "Ivan"));
+        writeBehindDao.update(createUser(2L, "Anna"));
+
+        assertEquals(Set.of(2L), writeBehindDao.flush());
+        assertEquals(1, writeBehindDao.getFlushedUpdates());
+        assertEquals(1, writeBehindDao.getFailedUpdates());
+        assertTrue(writeBehindDao.flush().isEmpty());
+    }
+
+    @Test
+    public void testFlushReportsDroppedUpdates() {
+        writeBehindDao = new WriteBehindUserDAO(userDAO, 100, Duration.ofMinutes(1));
+        when(userDAO.updateAll(anyCollection())).thenReturn(new BatchUpdateResult(1, Set.of(2L), Set.of(3L)));
+
+        writeBehindDao.update(createUser(1L, "Ivan"));
+        writeBehindDao.update(createUser(2L, "Anna"));
+        writeBehindDao.update(createUser(3L, "Inna"));
+
+        assertEquals(Set.of(2L, 3L), writeBehindDao.flush());
+    }
+
+    private User createUser(Long id, String name) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setEmail(name.toLowerCase() + "@test.ru");
+        return user;
+    }
+
+}
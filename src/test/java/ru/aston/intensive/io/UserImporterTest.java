@@ -0,0 +1,141 @@
+package ru.aston.intensive.io;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.dao.BatchSaveResult;
+import ru.aston.intensive.dao.UserDAO;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.service.UserService;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserImporterTest {
+
+    @Mock
+    private UserDAO userDAO;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void testImportsCsvAndRejectsBadRows() throws IOException {
+        List<String> saved = recordSavedEmails();
+        Path input = write("users.csv",
+            "name,email",
+            "Ivan,ivan@test.ru",
+            "\"Petrov, Anna\",anna@test.ru",
+            "",
+            "Broken",
+            "Ivan Again,ivan@test.ru",
+            ",empty@test.ru");
+
+        ImportSummary summary = new UserImporter(new UserService(userDAO), 10, 3).importFile(input, UserFileFormat.CSV);
+
+        assertEquals(5, summary.rows());
+        assertEquals(2, summary.imported());
+        assertEquals(3, summary.rejected());
+        assertEquals(List.of("ivan@test.ru", "anna@test.ru"), saved);
+        List<String> rejects = Files.readAllLines(UserImporter.rejectsFile(input));
+        assertEquals(3, rejects.size());
+        assertTrue(rejects.get(0).startsWith("5\tExpected 2 fields"));
+        assertTrue(rejects.get(1).startsWith("6\tDuplicate email"));
+        assertTrue(rejects.get(2).startsWith("7\tInvalid user"));
+        assertFalse(Files.exists(UserImporter.checkpointFile(input)));
+    }
+
+    @Test
+    public void testImportsJsonLines() throws IOException {
+        List<String> saved = recordSavedEmails();
+        Path input = write("users.jsonl",
+            "{\"name\": \"Ivan \\\"Ivanov\\\"\", \"email\": \"ivan@test.ru\", \"age\": 30}",
+            "{\"email\":\"anna@test.ru\",\"name\":\"Anna\"}",
+            "{\"name\": \"Broken\"");
+
+        ImportSummary summary = new UserImporter(new UserService(userDAO), 10, 2)
+            .importFile(input, UserFileFormat.of(input));
+
+        assertEquals(2, summary.imported());
+        assertEquals(1, summary.rejected());
+        assertEquals(List.of("ivan@test.ru", "anna@test.ru"), saved);
+    }
+
+    @Test
+    public void testRetriesFailedBatchRowByRowAndRejectsDuplicates() throws IOException {
+        when(userDAO.saveAll(anyCollection())).thenAnswer(invocation -> {
+            List<User> users = List.copyOf(invocation.<Collection<User>>getArgument(0));
+            return new BatchSaveResult(List.of(), List.of(new BatchSaveResult.BatchFailure(0, users, "constraint")));
+        });
+        when(userDAO.save(any())).thenAnswer(invocation -> {
+            User user = invocation.getArgument(0);
+            if (user.getEmail().equals("taken@test.ru")) {
+                throw new AppException("Save failed",
+                    new ConstraintViolationException("duplicate key", new SQLException(), "users_email_key"));
+            }
+            return 1L;
+        });
+        Path input = write("users.csv", "Ivan,ivan@test.ru", "Taken,taken@test.ru");
+
+        ImportSummary summary = new UserImporter(new UserService(userDAO), 10, 1).importFile(input, UserFileFormat.CSV);
+
+        assertEquals(1, summary.imported());
+        assertEquals(1, summary.rejected());
+        assertEquals(List.of("2\tDuplicate email\tTaken,taken@test.ru"), Files.readAllLines(UserImporter.rejectsFile(input)));
+    }
+
+    @Test
+    public void testResumesAfterCrashFromLastCommittedChunk() throws IOException {
+        List<String> saved = new ArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+        when(userDAO.saveAll(anyCollection())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 2) {
+                throw new AppException("Batch save failed");
+            }
+            Collection<User> users = invocation.getArgument(0);
+            users.forEach(user -> saved.add(user.getEmail()));
+            return new BatchSaveResult(List.of(1L, 2L), List.of());
+        });
+        Path input = write("users.csv", "A,a@test.ru", "B,b@test.ru", "C,c@test.ru", "D,d@test.ru");
+        UserImporter importer = new UserImporter(new UserService(userDAO), 2, 2);
+
+        assertThrows(AppException.class, () -> importer.importFile(input, UserFileFormat.CSV));
+        assertTrue(Files.exists(UserImporter.checkpointFile(input)));
+
+        ImportSummary summary = importer.importFile(input, UserFileFormat.CSV);
+
+        assertEquals(2, summary.resumedFromLine());
+        assertEquals(2, summary.rows());
+        assertEquals(List.of("a@test.ru", "b@test.ru", "c@test.ru", "d@test.ru"), saved);
+        assertFalse(Files.exists(UserImporter.checkpointFile(input)));
+    }
+
+    private List<String> recordSavedEmails() {
+        List<String> saved = new ArrayList<>();
+        when(userDAO.saveAll(anyCollection())).thenAnswer(invocation -> {
+            Collection<User> users = invocation.getArgument(0);
+            users.forEach(user -> saved.add(user.getEmail()));
+            return new BatchSaveResult(users.stream().map(user -> 1L).toList(), List.of());
+        });
+        return saved;
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.writeString(directory.resolve(name), String.join("\n", lines) + "\n", StandardCharsets.UTF_8);
+    }
+
+}
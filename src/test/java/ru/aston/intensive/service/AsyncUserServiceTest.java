@@ -0,0 +1,97 @@
+package ru.aston.intensive.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.intensive.entity.User;
+import ru.aston.intensive.exception.AppException;
+import java.time.Duration;
+import java.util.concurrent.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AsyncUserServiceTest {
+
+    @Mock
+    private UserService userService;
+
+    private AsyncUserService asyncService;
+
+    @AfterEach
+    void closeAsyncService() {
+        asyncService.close();
+    }
+
+    @Test
+    public void testGetUserByIdCompletesWithUser() throws Exception {
+        asyncService = new AsyncUserService(userService, 2, Duration.ZERO, null);
+        User testUserIvan = new User();
+        CompletableFuture<Boolean> ranOnVirtualThread = new CompletableFuture<>();
+        when(userService.getUserById(1L)).thenAnswer(invocation -> {
+            ranOnVirtualThread.complete(Thread.currentThread().isVirtual());
+            return testUserIvan;
+        });
+
+        assertSame(testUserIvan, asyncService.getUserById(1L).get(5, TimeUnit.SECONDS));
+        assertTrue(ranOnVirtualThread.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        asyncService = new AsyncUserService(userService, 2, Duration.ZERO, null);
+        doThrow(new AppException("User with id=5 not found")).when(userService).deleteUserById(5L);
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+            () -> asyncService.deleteUserById(5L).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(AppException.class, exception.getCause());
+    }
+
+    @Test
+    public void testRejectsWhenConcurrencyLimitReached() throws Exception {
+        asyncService = new AsyncUserService(userService, 1, Duration.ofMillis(50), null);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userService.getUserById(1L)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new User();
+        });
+
+        CompletableFuture<User> running = asyncService.getUserById(1L);
+        CompletableFuture<User> rejected = asyncService.getUserById(2L);
+        release.countDown();
+
+        assertNotNull(running.get(5, TimeUnit.SECONDS));
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AppException.class, exception.getCause());
+        verify(userService, never()).getUserById(2L);
+    }
+
+    @Test
+    public void testTimeoutInterruptsOperationAndReleasesPermit() throws Exception {
+        asyncService = new AsyncUserService(userService, 1, Duration.ZERO, Duration.ofMillis(100));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(userService.getUserById(1L)).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+            () -> asyncService.getUserById(1L).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (asyncService.getAvailablePermits() == 0) {
+                Thread.sleep(10);
+            }
+        });
+    }
+
+}
@@ -8,7 +8,12 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.intensive.dao.UserDAO;
 import ru.aston.intensive.entity.User;
 import ru.aston.intensive.exception.AppException;
+import ru.aston.intensive.exception.OptimisticConflictException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -62,6 +67,25 @@ public class UserServiceTest {
         verify(userDAO, times(0)).save(testUserIvan);
     }
 
+    @Test
+    public void testSaveAllUsers() {
+        List<User> users = List.of(testUserIvan);
+
+        userService.saveAll(users);
+
+        verify(userDAO, times(1)).saveAll(users);
+    }
+
+    @Test
+    public void testSaveAllWithInvalidData() {
+        User invalidUser = new User();
+        invalidUser.setName("Anna");
+
+        assertThrows(AppException.class, () -> userService.saveAll(List.of(testUserIvan, invalidUser)));
+
+        verify(userDAO, times(0)).saveAll(anyCollection());
+    }
+
     @Test
     public void testGetUserById() {
         Long testUserId = testUserIvan.getId();
@@ -88,6 +112,47 @@ public class UserServiceTest {
         verify(userDAO, times(1)).findById(testUserId);
     }
 
+    @Test
+    public void testConditionalOperationsReturnResultsInsteadOfThrowing() {
+        when(userDAO.findOptionalById(2L)).thenReturn(Optional.empty());
+        when(userDAO.updateIfPresent(any())).thenReturn(0);
+        when(userDAO.deleteIfPresent(2L)).thenReturn(0);
+
+        assertTrue(userService.findUserById(2L).isEmpty());
+        assertEquals(0, userService.updateUserIfExists(2L, "Petr", "petr@test.ru"));
+        assertEquals(0, userService.deleteUserIfExists(2L));
+        assertThrows(AppException.class, () -> userService.updateUserIfExists(2L, "", "petr@test.ru"));
+        verify(userDAO, never()).findById(any());
+        verify(userDAO, never()).update(any());
+        verify(userDAO, never()).delete(any());
+    }
+
+    @Test
+    public void testGetUsersByIds() {
+        List<Long> userIds = List.of(testUserIvan.getId(), 2L);
+
+        userService.getUsersByIds(userIds);
+
+        verify(userDAO, times(1)).findByIds(userIds);
+    }
+
+    @Test
+    public void testGetUserByEmail() {
+        when(userDAO.findByEmail(testUserIvan.getEmail())).thenReturn(testUserIvan);
+
+        User returnedUser = userService.getUserByEmail(testUserIvan.getEmail());
+
+        assertEquals(testUserIvan.getId(), returnedUser.getId());
+        verify(userDAO, times(1)).findByEmail(testUserIvan.getEmail());
+    }
+
+    @Test
+    public void testIsEmailTaken() {
+        when(userDAO.existsByEmail(testUserIvan.getEmail())).thenReturn(true);
+
+        assertTrue(userService.isEmailTaken(testUserIvan.getEmail()));
+    }
+
     @Test
     public void testUpdateUser() {
         Long testUserId = testUserIvan.getId();
@@ -119,4 +184,72 @@ public class UserServiceTest {
         verify(userDAO, times(1)).delete(testUserId);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testModifyUserRetriesAfterConflict() {
+        userService.setRetryPolicy(new RetryPolicy(3, Duration.ZERO, Duration.ZERO, 1.0));
+        when(userDAO.findById(1L)).thenAnswer(invocation -> new User(1L, "Ivan", "ivan@test.ru", null, 0L, null));
+        doThrow(new OptimisticConflictException("User with id=1 was changed concurrently"))
+            .doNothing()
+            .when(userDAO).update(any());
+
+        User modified = userService.modifyUser(1L, user -> user.setName("Inna"));
+
+        assertEquals("Inna", modified.getName());
+        verify(userDAO, times(2)).findById(1L);
+        verify(userDAO, times(2)).update(any());
+        assertEquals(1, userService.getConflicts());
+        assertEquals(1, userService.getRetries());
+        assertEquals(0, userService.getExhaustedRetries());
+    }
+
+    @Test
+    public void testModifyUserDoesNotChangeLoadedInstance() {
+        User cached = new User(1L, "Ivan", "ivan@test.ru", null, 0L, null);
+        when(userDAO.findById(1L)).thenReturn(cached);
+
+        User modified = userService.modifyUser(1L, user -> user.setName("Inna"));
+
+        assertEquals("Inna", modified.getName());
+        assertEquals("Ivan", cached.getName());
+        verify(userDAO, times(1)).update(modified);
+    }
+
+    @Test
+    public void testModifyUserGivesUpAfterMaxAttempts() {
+        userService.setRetryPolicy(new RetryPolicy(2, Duration.ZERO, Duration.ZERO, 1.0));
+        when(userDAO.findById(1L)).thenAnswer(invocation -> new User(1L, "Ivan", "ivan@test.ru", null, 0L, null));
+        doThrow(new OptimisticConflictException("User with id=1 was changed concurrently")).when(userDAO).update(any());
+
+        assertThrows(OptimisticConflictException.class, () -> userService.modifyUser(1L, user -> user.setName("Inna")));
+
+        assertEquals(2, userService.getConflicts());
+        assertEquals(1, userService.getRetries());
+        assertEquals(1, userService.getExhaustedRetries());
+    }
+
+    @Test
+    public void testVersionedUpdateIsNotRetried() {
+        doThrow(new OptimisticConflictException("User with id=1 was changed concurrently")).when(userDAO).update(any());
+
+        assertThrows(OptimisticConflictException.class, () -> userService.updateUser(1L, 3L, "Inna", "inna@test.ru"));
+
+        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+        verify(userDAO, times(1)).update(userCaptor.capture());
+        assertEquals(3L, userCaptor.getValue().getVersion());
+        assertEquals(1, userService.getConflicts());
+    }
+
+    @Test
+    public void testTransactionPropagation() {
+        when(userDAO.findById(1L)).thenReturn(testUserIvan);
+
+        String name = userService.inTransaction(service -> service.inReadOnlyTransaction(
+            readOnly -> readOnly.getUserById(1L).getName()));
+        assertEquals("Ivan", name);
+
+        assertThrows(AppException.class, () -> userService.inReadOnlyTransaction(
+            service -> service.inTransaction(readWrite -> readWrite.deleteUserIfExists(1L))));
+        verify(userDAO, never()).deleteIfPresent(any());
+    }
+
+}
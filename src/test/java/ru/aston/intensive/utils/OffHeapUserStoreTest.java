@@ -0,0 +1,59 @@
+package ru.aston.intensive.utils;
+
+import org.junit.jupiter.api.Test;
+import ru.aston.intensive.entity.User;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapUserStoreTest {
+
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_456_000);
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Test
+    public void testGarbageIsReclaimedWhileReadersKeepFindingUsers() {
+        OffHeapUserStore store = new OffHeapUserStore(0, SEGMENT_SIZE);
+        for (long id = 1; id <= 10; id++) {
+            store.put(createUser(id, 0));
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+            while (writing.get()) {
+                for (long id = 1; id <= 9; id++) {
+                    assertEquals("user" + id + "@test.ru", store.get(id).getEmail());
+                    assertTrue(store.containsEmail("user" + id + "@test.ru"));
+                }
+            }
+        });
+
+        try {
+            for (long version = 1; version <= 500; version++) {
+                for (long id = 1; id <= 10; id++) {
+                    store.put(createUser(id, version));
+                }
+            }
+            store.remove(10L);
+        } finally {
+            writing.set(false);
+        }
+        reader.join();
+
+        assertTrue(store.getCompactions() > 0);
+        assertTrue(store.getOffHeapBytes() <= 4 * SEGMENT_SIZE);
+        assertTrue(store.getGarbageBytes() < store.getOffHeapBytes() / 2);
+        assertEquals(9, store.size());
+        User user = store.getByEmail("user7@test.ru");
+        assertEquals(7L, user.getId());
+        assertEquals(500L, user.getVersion());
+        assertEquals(CREATED_AT, user.getCreatedAt());
+        assertNull(store.get(10L));
+        assertFalse(store.containsEmail("user10@test.ru"));
+    }
+
+    private static User createUser(long id, long version) {
+        return new User(id, "User" + id, "user" + id + "@test.ru", CREATED_AT, version, CREATED_AT);
+    }
+
+}